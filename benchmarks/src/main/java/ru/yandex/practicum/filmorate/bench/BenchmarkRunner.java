@@ -0,0 +1,27 @@
+package ru.yandex.practicum.filmorate.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Точка входа benchmarks.jar: принимает обычные аргументы JMH и всегда включает профилировщик gc,
+ * чтобы рядом с ops/s в отчете была скорость аллокаций (gc.alloc.rate.norm — байт на операцию).
+ * <p>
+ * {@code java -jar benchmarks/target/benchmarks.jar FilmStorageBenchmark -p films=20000 -rf json}
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
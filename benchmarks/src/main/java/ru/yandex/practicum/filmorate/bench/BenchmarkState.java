@@ -0,0 +1,245 @@
+package ru.yandex.practicum.filmorate.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import ru.yandex.practicum.filmorate.FilmorateApplication;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.review.ReviewDbStorage;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Встроенная H2 с синтетическими данными и поднятый поверх нее контекст приложения.
+ * Данные пишутся до старта контекста, чтобы индексы в памяти построились так же, как при запуске сервиса
+ * на заполненной БД. Размеры набора задаются параметрами JMH, например {@code -p users=100000}.
+ * Генератор детерминирован: при одинаковых параметрах набор совпадает между запусками.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkState {
+    private static final String DB_URL = "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1";
+    private static final int SEED_BATCH_SIZE = 10_000;
+    private static final int GENRE_COUNT = 6;
+    private static final int MPA_COUNT = 5;
+    private static final String[] TITLE_WORDS = {"Dark", "Star", "Ring", "Night", "River", "Lost", "City",
+        "Storm", "Silent", "Empire", "Ghost", "Winter", "Blue", "Last", "Iron", "Dream"};
+    private static final String[] SURNAMES = {"Nolan", "Tarkovsky", "Kubrick", "Scott", "Villeneuve",
+        "Fincher", "Lynch", "Kurosawa", "Bergman", "Leone"};
+
+    @Param("10000")
+    public int users;
+
+    @Param("5000")
+    public int films;
+
+    @Param("20")
+    public int likesPerUser;
+
+    @Param("10")
+    public int friendsPerUser;
+
+    @Param("2")
+    public int reviewsPerFilm;
+
+    @Param("20")
+    public int eventsPerUser;
+
+    FilmDbStorage filmStorage;
+    UserDbStorage userStorage;
+    EventDbStorage eventStorage;
+    ReviewDbStorage reviewStorage;
+
+    private ConfigurableApplicationContext context;
+    private long firstUserId;
+    private long firstFilmId;
+    private long firstDirectorId;
+    private int directors;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(DB_URL, "sa", "password");
+        try (Connection connection = dataSource.getConnection()) {
+            ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+            ScriptUtils.executeSqlScript(connection, new ClassPathResource("data.sql"));
+        }
+        seed(new JdbcTemplate(dataSource));
+
+        // аргументы командной строки перекрывают application.properties
+        context = new SpringApplicationBuilder(FilmorateApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run("--spring.datasource.url=" + DB_URL,
+                        "--spring.sql.init.mode=never",
+                        "--logging.level.root=WARN");
+        filmStorage = context.getBean(FilmDbStorage.class);
+        userStorage = context.getBean(UserDbStorage.class);
+        eventStorage = context.getBean(EventDbStorage.class);
+        reviewStorage = context.getBean(ReviewDbStorage.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        new JdbcTemplate(new DriverManagerDataSource(DB_URL, "sa", "password")).execute("SHUTDOWN");
+    }
+
+    long randomUserId() {
+        return firstUserId + ThreadLocalRandom.current().nextInt(users);
+    }
+
+    long randomFilmId() {
+        return firstFilmId + ThreadLocalRandom.current().nextInt(films);
+    }
+
+    long randomDirectorId() {
+        return firstDirectorId + ThreadLocalRandom.current().nextInt(directors);
+    }
+
+    long randomGenreId() {
+        return 1 + ThreadLocalRandom.current().nextInt(GENRE_COUNT);
+    }
+
+    int randomYear() {
+        return 1950 + ThreadLocalRandom.current().nextInt(75);
+    }
+
+    String randomTitleWord() {
+        return TITLE_WORDS[ThreadLocalRandom.current().nextInt(TITLE_WORDS.length)].toLowerCase();
+    }
+
+    private void seed(JdbcTemplate jdbc) {
+        Random random = new Random(42);
+        firstUserId = nextId(jdbc, "users", "user_id");
+        firstFilmId = nextId(jdbc, "films", "film_id");
+        firstDirectorId = nextId(jdbc, "directors", "director_id");
+        long firstReviewId = nextId(jdbc, "reviews", "review_id");
+        long firstEventId = nextId(jdbc, "events", "event_id");
+        directors = Math.max(10, films / 50);
+
+        insert(jdbc, "INSERT INTO directors (director_id, name) VALUES (?, ?)", directors,
+                i -> new Object[]{firstDirectorId + i, SURNAMES[i % SURNAMES.length] + " " + i});
+        insert(jdbc, "INSERT INTO users (user_id, email, login, name, birthday) VALUES (?, ?, ?, ?, ?)", users,
+                i -> new Object[]{firstUserId + i, "bench" + i + "@example.com", "bench" + i, "Bench " + i,
+                    Date.valueOf(LocalDate.of(1970 + i % 40, 1 + i % 12, 1 + i % 28))});
+        insert(jdbc, "INSERT INTO films (film_id, name, description, release_date, duration, mpa_id) " +
+                        "VALUES (?, ?, ?, ?, ?, ?)", films,
+                i -> new Object[]{firstFilmId + i,
+                    TITLE_WORDS[i % TITLE_WORDS.length] + " " + TITLE_WORDS[(i / TITLE_WORDS.length) % TITLE_WORDS.length] + " " + i,
+                    "Описание фильма " + i, Date.valueOf(LocalDate.of(1950 + i % 75, 1, 1)), 80 + i % 90, 1 + i % MPA_COUNT});
+
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < films; i++) {
+            rows.add(new Object[]{firstFilmId + i, 1 + i % GENRE_COUNT});
+            if ((i / GENRE_COUNT) % GENRE_COUNT != i % GENRE_COUNT) {
+                rows.add(new Object[]{firstFilmId + i, 1 + (i / GENRE_COUNT) % GENRE_COUNT});
+            }
+        }
+        flush(jdbc, "INSERT INTO films_genres (film_id, genre_id) VALUES (?, ?)", rows, true);
+        for (int i = 0; i < films; i++) {
+            rows.add(new Object[]{firstFilmId + i, firstDirectorId + i % directors});
+        }
+        flush(jdbc, "INSERT INTO films_directors (film_id, director_id) VALUES (?, ?)", rows, true);
+
+        // популярность смещена к первым фильмам, как у реального каталога
+        Set<Integer> picked = new HashSet<>();
+        for (int user = 0; user < users; user++) {
+            picked.clear();
+            while (picked.size() < Math.min(likesPerUser, films)) {
+                double r = random.nextDouble();
+                picked.add((int) (films * r * r));
+            }
+            for (int film : picked) {
+                rows.add(new Object[]{firstUserId + user, firstFilmId + film});
+            }
+            flush(jdbc, "INSERT INTO likes (user_id, film_id) VALUES (?, ?)", rows, false);
+        }
+        flush(jdbc, "INSERT INTO likes (user_id, film_id) VALUES (?, ?)", rows, true);
+        jdbc.update("UPDATE films f SET likes_count = (SELECT COUNT(*) FROM likes l WHERE l.film_id = f.film_id)");
+
+        for (int user = 0; user < users; user++) {
+            picked.clear();
+            while (picked.size() < Math.min(friendsPerUser, users - 1)) {
+                int friend = random.nextInt(users);
+                if (friend != user) {
+                    picked.add(friend);
+                }
+            }
+            for (int friend : picked) {
+                rows.add(new Object[]{firstUserId + user, firstUserId + friend});
+            }
+            flush(jdbc, "INSERT INTO friends (user_id, friend_id) VALUES (?, ?)", rows, false);
+        }
+        flush(jdbc, "INSERT INTO friends (user_id, friend_id) VALUES (?, ?)", rows, true);
+
+        int reviews = films * reviewsPerFilm;
+        insert(jdbc, "INSERT INTO reviews (review_id, content, is_positive, user_id, film_id) VALUES (?, ?, ?, ?, ?)", reviews,
+                i -> new Object[]{firstReviewId + i, "Отзыв " + i, i % 3 != 0,
+                    firstUserId + random.nextInt(users), firstFilmId + i / reviewsPerFilm});
+        for (int i = 0; i < reviews; i++) {
+            int voters = random.nextInt(4);
+            for (int v = 0; v < voters; v++) {
+                rows.add(new Object[]{firstReviewId + i, firstUserId + (i * 7L + v) % users});
+            }
+            flush(jdbc, "MERGE INTO review_reactions (review_id, user_id, reaction) VALUES (?, ?, 1)", rows, false);
+        }
+        flush(jdbc, "MERGE INTO review_reactions (review_id, user_id, reaction) VALUES (?, ?, 1)", rows, true);
+        jdbc.update("UPDATE reviews r SET useful = (SELECT COALESCE(SUM(rr.reaction), 0) FROM review_reactions rr "
+                + "WHERE rr.review_id = r.review_id)");
+
+        long ts = System.currentTimeMillis() - (long) users * eventsPerUser * 1000;
+        insert(jdbc, "INSERT INTO events (event_id, ts, user_id, event_type, operation, entity_id) VALUES (?, ?, ?, ?, ?, ?)",
+                users * eventsPerUser,
+                i -> new Object[]{firstEventId + i, ts + i * 1000L, firstUserId + random.nextInt(users),
+                    "LIKE", i % 4 == 0 ? "REMOVE" : "ADD", firstFilmId + random.nextInt(films)});
+
+        // строки вставлены с явными id, счетчики identity и последовательность событий нужно сдвинуть за них
+        for (String[] table : new String[][]{{"users", "user_id"}, {"films", "film_id"}, {"directors", "director_id"},
+            {"reviews", "review_id"}}) {
+            jdbc.execute(String.format("ALTER TABLE %s ALTER COLUMN %s RESTART WITH %d",
+                    table[0], table[1], nextId(jdbc, table[0], table[1])));
+        }
+        jdbc.execute(String.format("ALTER SEQUENCE events_seq RESTART WITH %d", nextId(jdbc, "events", "event_id")));
+    }
+
+    private static long nextId(JdbcTemplate jdbc, String table, String column) {
+        Long max = jdbc.queryForObject(String.format("SELECT COALESCE(MAX(%s), 0) FROM %s", column, table), Long.class);
+        return max + 1;
+    }
+
+    private static void insert(JdbcTemplate jdbc, String sql, int count, RowFactory factory) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(factory.row(i));
+            flush(jdbc, sql, rows, false);
+        }
+        flush(jdbc, sql, rows, true);
+    }
+
+    private static void flush(JdbcTemplate jdbc, String sql, List<Object[]> rows, boolean force) {
+        if (!rows.isEmpty() && (force || rows.size() >= SEED_BATCH_SIZE)) {
+            jdbc.batchUpdate(sql, rows);
+            rows.clear();
+        }
+    }
+
+    private interface RowFactory {
+        Object[] row(int index);
+    }
+}
@@ -0,0 +1,39 @@
+package ru.yandex.practicum.filmorate.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.model.event.Event;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FeedAndReviewBenchmark {
+    private static final int FEED_PAGE_SIZE = 100;
+    private static final int REVIEW_COUNT = 10;
+
+    @Benchmark
+    public List<Event> getFeedForUser(BenchmarkState state) {
+        return state.eventStorage.getFeedForUser(state.randomUserId());
+    }
+
+    @Benchmark
+    public List<Event> getFeedPageForUser(BenchmarkState state) {
+        return state.eventStorage.getFeedForUser(state.randomUserId(), Long.MIN_VALUE, Long.MIN_VALUE, FEED_PAGE_SIZE + 1);
+    }
+
+    @Benchmark
+    public List<Review> findReviewsByFilmId(BenchmarkState state) {
+        return state.reviewStorage.findByFilmId(state.randomFilmId(), REVIEW_COUNT);
+    }
+}
@@ -0,0 +1,66 @@
+package ru.yandex.practicum.filmorate.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FilmStorageBenchmark {
+    private static final int POPULAR_COUNT = 10;
+    private static final List<String> SEARCH_BY = List.of("title", "director");
+
+    @Benchmark
+    public Optional<Film> findById(BenchmarkState state) {
+        return state.filmStorage.findById(state.randomFilmId());
+    }
+
+    @Benchmark
+    public Collection<Film> findAll(BenchmarkState state) {
+        return state.filmStorage.findAll();
+    }
+
+    @Benchmark
+    public List<Film> getPopularFilms(BenchmarkState state) {
+        return state.filmStorage.getPopularFilms(POPULAR_COUNT, null, null);
+    }
+
+    @Benchmark
+    public List<Film> getPopularFilmsByGenre(BenchmarkState state) {
+        return state.filmStorage.getPopularFilms(POPULAR_COUNT, state.randomGenreId(), null);
+    }
+
+    @Benchmark
+    public List<Film> getPopularFilmsByGenreAndYear(BenchmarkState state) {
+        return state.filmStorage.getPopularFilms(POPULAR_COUNT, state.randomGenreId(), state.randomYear());
+    }
+
+    @Benchmark
+    public List<Film> searchFilms(BenchmarkState state) {
+        return state.filmStorage.searchFilms(state.randomTitleWord(), SEARCH_BY);
+    }
+
+    @Benchmark
+    public List<Film> getCommonFilms(BenchmarkState state) {
+        return state.filmStorage.getCommonFilms(state.randomUserId(), state.randomUserId());
+    }
+
+    // путь через FilmWithDetailsMapper
+    @Benchmark
+    public List<Film> getFilmsByDirector(BenchmarkState state) {
+        return state.filmStorage.getFilmsByDirector(state.randomDirectorId(), "likes");
+    }
+}
@@ -0,0 +1,65 @@
+package ru.yandex.practicum.filmorate.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.util.CompressedLongSet;
+import ru.yandex.practicum.filmorate.util.IdListDecoder;
+
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор колонки user_likes из GROUP_CONCAT: прежний split/trim/parseLong против разбора на месте.
+ * Разница в аллокациях видна в gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class GroupConcatDecodeBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int likeCount;
+
+    private String userLikes;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringJoiner joiner = new StringJoiner(",");
+        for (int i = 0; i < likeCount; i++) {
+            joiner.add(Long.toString(1 + random.nextInt(1_000_000)));
+        }
+        userLikes = joiner.toString();
+    }
+
+    @Benchmark
+    public CompressedLongSet split() {
+        CompressedLongSet likes = new CompressedLongSet();
+        for (String id : userLikes.split(",")) {
+            if (!id.trim().isEmpty()) {
+                likes.add(Long.parseLong(id.trim()));
+            }
+        }
+        return likes;
+    }
+
+    @Benchmark
+    public CompressedLongSet inPlace() {
+        CompressedLongSet likes = new CompressedLongSet();
+        IdListDecoder.forEach(userLikes, likes::add);
+        return likes;
+    }
+}
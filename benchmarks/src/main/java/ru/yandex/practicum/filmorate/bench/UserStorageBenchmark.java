@@ -0,0 +1,44 @@
+package ru.yandex.practicum.filmorate.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class UserStorageBenchmark {
+
+    @Benchmark
+    public Optional<User> findById(BenchmarkState state) {
+        return state.userStorage.findById(state.randomUserId());
+    }
+
+    @Benchmark
+    public List<User> getFriends(BenchmarkState state) {
+        return state.userStorage.getFriends(state.randomUserId());
+    }
+
+    @Benchmark
+    public List<User> getCommonFriends(BenchmarkState state) {
+        return state.userStorage.getCommonFriends(state.randomUserId(), state.randomUserId());
+    }
+
+    @Benchmark
+    public Collection<Film> getRecommendations(BenchmarkState state) {
+        return state.userStorage.getRecommendations(state.randomUserId());
+    }
+}
@@ -7,10 +7,17 @@ import jakarta.validation.constraints.Positive;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import ru.yandex.practicum.filmorate.model.BatchImportResult;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.LikeOperation;
+import ru.yandex.practicum.filmorate.model.LikeOperationResult;
 import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.PopularFilmsCache;
 
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -53,19 +60,42 @@ public class FilmController {
         filmService.removeLike(id, userId);
     }
 
+    // Тело читается потоком, а не через @RequestBody, чтобы не держать весь массив в памяти
+    @PostMapping("/batch")
+    public BatchImportResult importFilms(InputStream body) {
+        log.info("Получен запрос POST /films/batch");
+        return filmService.importFilms(body);
+    }
+
+    @PostMapping("/likes/batch")
+    public List<LikeOperationResult> applyLikes(@RequestBody List<LikeOperation> operations) {
+        log.info("Получен пакет из {} операций с лайками", operations.size());
+        return filmService.applyLikes(operations);
+    }
+
     @GetMapping("/popular")
-    public List<Film> getPopularFilms(
+    public ResponseEntity<List<Film>> getPopularFilms(
             @RequestParam(defaultValue = "10") @Min(1) @Max(2000) int count,
             @RequestParam(required = false) @Positive Long genreId,
-            @RequestParam(required = false) @Min(1895) @Max(2100) Integer year) {
+            @RequestParam(required = false) @Min(1895) @Max(2100) Integer year,
+            WebRequest request) {
+        // ответ может прийти из кеша, загруженного по более старой версии каталога, поэтому ETag
+        // проверяется по версии, которую отдаст кеш, а ответ помечается версией фактически отданного списка
+        if (request.checkNotModified(filmService.popularFilmsETag(count, genreId, year))) {
+            return null;
+        }
 
         log.debug("Запрос популярных фильмов: count={}, genreId={}, year={}", count, genreId, year);
 
-        return filmService.getPopularFilms(count, genreId, year);
+        PopularFilmsCache.Page page = filmService.getPopularFilms(count, genreId, year);
+        return ResponseEntity.ok().eTag(page.eTag()).body(page.films());
     }
 
     @GetMapping("/{id}")
-    public Film getFilmById(@PathVariable Long id) {
+    public Film getFilmById(@PathVariable Long id, WebRequest request) {
+        if (request.checkNotModified(filmService.filmETag(id))) {
+            return null;
+        }
         return filmService.getFilmOrThrow(id);
     }
 
@@ -2,6 +2,7 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import ru.yandex.practicum.filmorate.model.Review;
 import ru.yandex.practicum.filmorate.service.ReviewService;
 import jakarta.validation.Valid;
@@ -36,7 +37,11 @@ public class ReviewController {
     @GetMapping
     public List<Review> getReviews(
             @RequestParam(required = false) Long filmId,
-            @RequestParam(defaultValue = "10") int count) {
+            @RequestParam(defaultValue = "10") int count,
+            WebRequest request) {
+        if (request.checkNotModified(reviewService.reviewsETag(filmId))) {
+            return null;
+        }
         return reviewService.getReviews(filmId, count);
     }
 
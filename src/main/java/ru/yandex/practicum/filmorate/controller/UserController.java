@@ -1,13 +1,18 @@
 package ru.yandex.practicum.filmorate.controller;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import ru.yandex.practicum.filmorate.model.BatchImportResult;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.FeedPage;
 
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
 
@@ -19,6 +24,7 @@ import ru.yandex.practicum.filmorate.service.UserService;
 @RestController
 @RequestMapping("/users")
 public class UserController {
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
 
     private final UserService userService;
     private final EventService eventService;
@@ -45,6 +51,13 @@ public class UserController {
         return userService.create(user);
     }
 
+    // Тело читается потоком, как и в POST /films/batch
+    @PostMapping("/batch")
+    public BatchImportResult importUsers(InputStream body) {
+        log.info("Получен запрос POST /users/batch");
+        return userService.importUsers(body);
+    }
+
     @PutMapping
     public User update(@RequestBody @Valid User newUser) {
         return userService.update(newUser);
@@ -61,7 +74,10 @@ public class UserController {
     }
 
     @GetMapping("/{id}/friends")
-    public Collection<User> getFriends(@PathVariable Long id) {
+    public Collection<User> getFriends(@PathVariable Long id, WebRequest request) {
+        if (request.checkNotModified(userService.friendsETag(id))) {
+            return null;
+        }
         return userService.getFriends(id);
     }
 
@@ -84,8 +100,19 @@ public class UserController {
 
 
     @GetMapping("/{id}/feed")
-    public List<Event> getUserFeed(@PathVariable Long id) {
+    public ResponseEntity<List<Event>> getUserFeed(@PathVariable Long id,
+                                                   @RequestParam(required = false) String cursor,
+                                                   @RequestParam(required = false) Integer size) {
         userService.getUserOrThrow(id);
-        return eventService.getFeedForUser(id);
+        if (cursor == null && size == null) {
+            // без параметров пагинации лента отдается целиком, как раньше
+            return ResponseEntity.ok(eventService.getFeedForUser(id));
+        }
+        FeedPage page = eventService.getFeedPage(id, cursor, size);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(page.events());
     }
 }
@@ -0,0 +1,111 @@
+package ru.yandex.practicum.filmorate.logging;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.zalando.logbook.Correlation;
+import org.zalando.logbook.HttpLogWriter;
+import org.zalando.logbook.Precorrelation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Асинхронная запись журнала HTTP: поток запроса только кладет готовую запись в кольцевой буфер
+ * на buffer-size записей, в журнал их пишет фоновый поток. При переполнении вытесняется самая старая запись;
+ * число потерянных записей видно в счетчике filmorate.traffic_log.dropped и периодически пишется в журнал.
+ */
+@Slf4j
+@Component
+public class AsyncHttpLogWriter implements HttpLogWriter {
+    private static final int DRAIN_BATCH_SIZE = 256;
+
+    private final BlockingQueue<String> buffer;
+    private final ObjectProvider<MeterRegistry> registryProvider;
+    private final AtomicLong dropped = new AtomicLong();
+    private long reportedDropped;
+    private volatile boolean running;
+    private Thread writerThread;
+
+    public AsyncHttpLogWriter(@Value("${filmorate.traffic-log.buffer-size:10000}") int bufferSize,
+                              ObjectProvider<MeterRegistry> registryProvider) {
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.registryProvider = registryProvider;
+    }
+
+    @PostConstruct
+    public void start() {
+        registryProvider.ifAvailable(registry -> FunctionCounter.builder("filmorate.traffic_log.dropped", dropped,
+                        AtomicLong::get)
+                .description("Записи журнала HTTP, вытесненные из переполненного буфера")
+                .register(registry));
+        running = true;
+        writerThread = new Thread(this::run, "traffic-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writerThread.interrupt();
+        writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        drain(new ArrayList<>());
+    }
+
+    @Override
+    public boolean isActive() {
+        return log.isInfoEnabled();
+    }
+
+    @Override
+    public void write(Precorrelation precorrelation, String request) {
+        offer(request);
+    }
+
+    @Override
+    public void write(Correlation correlation, String response) {
+        offer(response);
+    }
+
+    private void offer(String entry) {
+        while (!buffer.offer(entry)) {
+            if (buffer.poll() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    private void run() {
+        List<String> batch = new ArrayList<>(DRAIN_BATCH_SIZE);
+        while (running) {
+            try {
+                batch.add(buffer.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            drain(batch);
+        }
+    }
+
+    private void drain(List<String> batch) {
+        do {
+            batch.forEach(log::info);
+            batch.clear();
+        } while (buffer.drainTo(batch, DRAIN_BATCH_SIZE) > 0);
+        long total = dropped.get();
+        if (total > reportedDropped) {
+            log.warn("Буфер журнала HTTP переполнен, потеряно записей: {}", total - reportedDropped);
+            reportedDropped = total;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ru.yandex.practicum.filmorate.logging;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.zalando.logbook.Correlation;
+import org.zalando.logbook.HttpRequest;
+import org.zalando.logbook.HttpResponse;
+import org.zalando.logbook.Precorrelation;
+import org.zalando.logbook.Sink;
+import org.zalando.logbook.Strategy;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Стратегия Logbook с выборкой: тела запроса и ответа буферизуются только у выбранной доли запросов
+ * (filmorate.traffic-log.sample-rate, для отдельных эндпоинтов — sample-rates). Остальные запросы проходят
+ * без буферизации и попадают в журнал без тел, только если ответ неуспешный (status-at-least) или медленный
+ * (slow-threshold-ms). Запрос и ответ пишутся одной записью после ответа.
+ * <p>
+ * Решение о выборке принимается до обработки запроса и хранится в потоке до записи ответа: все эндпоинты
+ * синхронные, и Logbook вызывает стратегию в потоке запроса.
+ */
+@Slf4j
+@Component
+public class SampledTrafficStrategy implements Strategy {
+    private static final ThreadLocal<Boolean> SAMPLED = new ThreadLocal<>();
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    private final double defaultRate;
+    private final List<EndpointRate> rates;
+    private final int statusAtLeast;
+    private final Duration slowThreshold;
+
+    public SampledTrafficStrategy(@Value("${filmorate.traffic-log.sample-rate:0.01}") double defaultRate,
+                                  @Value("${filmorate.traffic-log.sample-rates:}") String rates,
+                                  @Value("${filmorate.traffic-log.status-at-least:400}") int statusAtLeast,
+                                  @Value("${filmorate.traffic-log.slow-threshold-ms:500}") long slowThresholdMs) {
+        this.defaultRate = defaultRate;
+        this.rates = parseRates(rates);
+        this.statusAtLeast = statusAtLeast;
+        this.slowThreshold = Duration.ofMillis(slowThresholdMs);
+        log.info("Журнал HTTP: выборка {}, по эндпоинтам {}, всегда при статусе от {} или дольше {} мс",
+                defaultRate, this.rates, statusAtLeast, slowThresholdMs);
+    }
+
+    @Override
+    public HttpRequest process(HttpRequest request) throws IOException {
+        boolean sampled = ThreadLocalRandom.current().nextDouble() < rateFor(request.getMethod(), request.getPath());
+        SAMPLED.set(sampled);
+        return sampled ? request.withBody() : request.withoutBody();
+    }
+
+    @Override
+    public void write(Precorrelation precorrelation, HttpRequest request, Sink sink) {
+        // запрос пишется вместе с ответом, когда известны статус и длительность
+    }
+
+    @Override
+    public HttpResponse process(HttpRequest request, HttpResponse response) throws IOException {
+        return Boolean.TRUE.equals(SAMPLED.get()) ? response.withBody() : response.withoutBody();
+    }
+
+    @Override
+    public void write(Correlation correlation, HttpRequest request, HttpResponse response, Sink sink) throws IOException {
+        boolean sampled = Boolean.TRUE.equals(SAMPLED.get());
+        SAMPLED.remove();
+        if (sampled || response.getStatus() >= statusAtLeast || correlation.getDuration().compareTo(slowThreshold) >= 0) {
+            sink.writeBoth(correlation, request, response);
+        }
+    }
+
+    private double rateFor(String method, String path) {
+        for (EndpointRate rate : rates) {
+            if ((rate.method == null || rate.method.equalsIgnoreCase(method)) && PATH_MATCHER.match(rate.pattern, path)) {
+                return rate.rate;
+            }
+        }
+        return defaultRate;
+    }
+
+    // Формат: "[МЕТОД ]шаблон=доля" через запятую, например "POST /films/batch=0,GET /films/**=0.001"
+    private static List<EndpointRate> parseRates(String value) {
+        List<EndpointRate> result = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int eq = entry.lastIndexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Некорректная доля выборки журнала HTTP: " + entry);
+            }
+            String endpoint = entry.substring(0, eq).trim();
+            double rate = Double.parseDouble(entry.substring(eq + 1).trim());
+            int space = endpoint.indexOf(' ');
+            result.add(space < 0 ? new EndpointRate(null, endpoint, rate)
+                    : new EndpointRate(endpoint.substring(0, space), endpoint.substring(space + 1).trim(), rate));
+        }
+        return result;
+    }
+
+    private record EndpointRate(String method, String pattern, double rate) {
+        @Override
+        public String toString() {
+            return (method != null ? method + " " : "") + pattern + "=" + rate;
+        }
+    }
+}
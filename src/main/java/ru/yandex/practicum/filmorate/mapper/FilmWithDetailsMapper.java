@@ -1,20 +1,45 @@
 package ru.yandex.practicum.filmorate.mapper;
 
+import lombok.RequiredArgsConstructor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.storage.director.DirectorStorage;
+import ru.yandex.practicum.filmorate.util.CompressedLongSet;
+import ru.yandex.practicum.filmorate.util.IdListDecoder;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+/**
+ * Строка фильма с жанрами, режиссерами и лайками, собранными через GROUP_CONCAT.
+ * В конкатенации передаются только id: они разбираются на месте, а имена жанров и режиссеров
+ * берутся из справочников в памяти. Имена в конкатенацию не попадают, поэтому запятая в имени режиссера
+ * ничего не ломает, а списки id и имен не могут разойтись по порядку.
+ * <p>
+ * Объекты не интернируются: модели изменяемые, и справочник отдает копии, так что каждая строка получает
+ * свои объекты жанров, а режиссеры общие только для строк одного результата resolveDirectors.
+ * <p>
+ * Режиссеры заполняются только id: запрос к БД за отсутствующими в кеше режиссерами во время обхода
+ * ResultSet занял бы второе соединение на каждую строку. Имена подставляет resolveDirectors после запроса,
+ * одним запросом на весь результат.
+ */
 @Component
+@RequiredArgsConstructor
 public class FilmWithDetailsMapper implements RowMapper<Film> {
+    private final ReferenceDataCache referenceDataCache;
+    private final DirectorStorage directorStorage;
+
     @Override
     public Film mapRow(ResultSet rs, int rowNum) throws SQLException {
         Film film = new Film();
@@ -31,69 +56,44 @@ public class FilmWithDetailsMapper implements RowMapper<Film> {
         film.setMpa(mpa);
 
         // Жанры
-        String genreIdsStr = rs.getString("genre_ids");
-        String genreNamesStr = rs.getString("genre_names");
-        Set<Genre> genres = new HashSet<>();
-
-        if (genreIdsStr != null && genreNamesStr != null) {
-            String[] ids = genreIdsStr.split(",");
-            String[] names = genreNamesStr.split(",");
-
-            if (ids.length != names.length) {
-                throw new IllegalArgumentException(
-                        "Несовпадение количества id и имён жанров: ids=" + ids.length + ", names=" + names.length
-                );
-            }
-
-            for (int i = 0; i < ids.length; i++) {
-                if (!ids[i].trim().isEmpty()) {
-                    Genre genre = new Genre();
-                    genre.setId(Long.parseLong(ids[i].trim()));
-                    genre.setName(names[i].trim());
-                    genres.add(genre);
-                }
-            }
-        }
+        Set<Genre> genres = new LinkedHashSet<>();
+        IdListDecoder.forEach(rs.getString("genre_ids"), id -> referenceDataCache.getGenre(id).ifPresent(genres::add));
         film.setGenres(genres);
 
         // Режиссеры
-        Set<Director> directors = new HashSet<>();
-        String directorIdsStr = rs.getString("director_ids");
-        String directorNamesStr = rs.getString("director_names");
-        if (directorIdsStr != null && directorNamesStr != null && !directorIdsStr.isEmpty()) {
-            String[] ids = directorIdsStr.split(",");
-            String[] names = directorNamesStr.split(",");
-
-            if (ids.length != names.length) {
-                throw new IllegalArgumentException(
-                        "Несовпадение количества id и имён режиссёров: ids=" + ids.length + ", names=" + names.length
-                );
-            }
-
-            for (int i = 0; i < Math.min(ids.length, names.length); i++) {
-                if (!ids[i].trim().isEmpty()) {
-                    Director director = new Director();
-                    director.setId(Long.parseLong(ids[i].trim()));
-                    director.setName(names[i].trim());
-                    directors.add(director);
-                }
-            }
-        }
+        Set<Director> directors = new LinkedHashSet<>();
+        IdListDecoder.forEach(rs.getString("director_ids"), id -> directors.add(new Director(id, null)));
         film.setDirectors(directors);
 
         // Лайки
-        String likesStr = rs.getString("user_likes");
-        Set<Long> likes = new HashSet<>();
-        if (likesStr != null) {
-            String[] likeIds = likesStr.split(",");
-            for (String id : likeIds) {
-                if (!id.trim().isEmpty()) {
-                    likes.add(Long.parseLong(id.trim()));
-                }
-            }
-        }
+        CompressedLongSet likes = new CompressedLongSet();
+        IdListDecoder.forEach(rs.getString("user_likes"), likes::add);
+        likes.runOptimize();
         film.setLikes(likes);
 
         return film;
     }
+
+    // Заменяет режиссеров, заполненных mapRow только id, на полные объекты
+    public List<Film> resolveDirectors(List<Film> films) {
+        Set<Long> ids = new HashSet<>();
+        for (Film film : films) {
+            film.getDirectors().forEach(director -> ids.add(director.getId()));
+        }
+        if (ids.isEmpty()) {
+            return films;
+        }
+        Map<Long, Director> byId = referenceDataCache.getDirectors(ids, directorStorage::findAllByIds);
+        for (Film film : films) {
+            Set<Director> directors = new LinkedHashSet<>();
+            for (Director director : film.getDirectors()) {
+                Director resolved = byId.get(director.getId());
+                if (resolved != null) {
+                    directors.add(resolved);
+                }
+            }
+            film.setDirectors(directors);
+        }
+        return films;
+    }
 }
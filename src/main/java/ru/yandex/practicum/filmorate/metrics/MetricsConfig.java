@@ -0,0 +1,55 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.StaticMethodMatcherPointcut;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.lang.NonNull;
+import ru.yandex.practicum.filmorate.FilmorateApplication;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Метрики хранилищ и SQL. Совет для методов *DbStorage объявлен инфраструктурным, поэтому его подхватывает
+ * тот же автопрокси, что и @Transactional, и у бина остается один прокси. MeterRegistry берется лениво:
+ * и совет, и обертка DataSource создаются раньше реестра. Метрики HTTP-эндпоинтов дает actuator (http.server.requests).
+ */
+@Configuration(proxyBeanMethods = false)
+public class MetricsConfig {
+
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static Advisor storageMetricsAdvisor(ObjectProvider<MeterRegistry> registryProvider) {
+        StaticMethodMatcherPointcut pointcut = new StaticMethodMatcherPointcut() {
+            @Override
+            public boolean matches(@NonNull Method method, @NonNull Class<?> targetClass) {
+                return targetClass.getSimpleName().endsWith("DbStorage")
+                        && Modifier.isPublic(method.getModifiers())
+                        && method.getDeclaringClass() != Object.class;
+            }
+        };
+        return new DefaultPointcutAdvisor(pointcut, new StorageMethodInterceptor(registryProvider));
+    }
+
+    @Bean
+    static BeanPostProcessor timedDataSourcePostProcessor(ObjectProvider<MeterRegistry> registryProvider) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(@NonNull Object bean, @NonNull String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof TimedDataSource)) {
+                    return new TimedDataSource(dataSource, registryProvider,
+                            new SqlConstantNames(FilmorateApplication.class.getPackageName()));
+                }
+                return bean;
+            }
+        };
+    }
+}
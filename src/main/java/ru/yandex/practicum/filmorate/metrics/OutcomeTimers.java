@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пара таймеров с тегом outcome. Таймер ошибок регистрируется при первой ошибке:
+ * у большинства запросов ошибок нет, и пустые гистограммы только раздували бы выдачу /actuator/prometheus.
+ */
+final class OutcomeTimers {
+    private final Timer.Builder builder;
+    private final MeterRegistry registry;
+    private final Timer success;
+    private volatile Timer error;
+
+    OutcomeTimers(Timer.Builder builder, MeterRegistry registry) {
+        this.builder = builder;
+        this.registry = registry;
+        this.success = builder.tag("outcome", "success").register(registry);
+    }
+
+    void record(long nanos, boolean succeeded) {
+        Timer timer = succeeded ? success : error();
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer error() {
+        Timer timer = error;
+        if (timer == null) {
+            // повторная регистрация с теми же тегами возвращает уже созданный таймер
+            timer = builder.tag("outcome", "error").register(registry);
+            error = timer;
+        }
+        return timer;
+    }
+}
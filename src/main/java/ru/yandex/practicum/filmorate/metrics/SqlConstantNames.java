@@ -0,0 +1,126 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Имена SQL-констант для тегов метрик: текст запроса сопоставляется с константой, из которой он взят,
+ * например {@code FilmDbStorage.FIND_ALL_QUERY}. Константы собираются один раз при старте со всех классов
+ * приложения. Шаблоны с %s (списки IN) сопоставляются регулярным выражением, дописанные условия — по префиксу,
+ * результат кешируется. Остальное (скрипты схемы, SimpleJdbcInsert) помечается как other.
+ * Один и тот же текст может встречаться в нескольких классах — тогда предпочитается класс текущего метода хранилища.
+ */
+@Slf4j
+final class SqlConstantNames {
+    static final String OTHER = "other";
+    private static final Pattern SQL_START = Pattern.compile("^\\s*(SELECT|INSERT|UPDATE|DELETE|MERGE|WITH|ALTER)\\b",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern FORMAT_PLACEHOLDER = Pattern.compile("%[sd]");
+    // ограничение кеша для запросов, собранных по шаблонам: у списка IN столько вариантов, сколько размеров пачки
+    private static final int MAX_CACHED_FORMATTED = 10_000;
+
+    private final Map<String, List<String>> exact = new HashMap<>();
+    private final Map<Pattern, String> templates = new LinkedHashMap<>();
+    private final ConcurrentMap<String, String> formatted = new ConcurrentHashMap<>();
+
+    SqlConstantNames(String basePackage) {
+        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false) {
+            @Override
+            protected boolean isCandidateComponent(AnnotatedBeanDefinition beanDefinition) {
+                return true;
+            }
+        };
+        scanner.addIncludeFilter((reader, factory) -> true);
+        for (BeanDefinition candidate : scanner.findCandidateComponents(basePackage)) {
+            try {
+                collect(Class.forName(candidate.getBeanClassName(), false, getClass().getClassLoader()));
+            } catch (ClassNotFoundException | LinkageError e) {
+                log.debug("Класс {} пропущен при сборе SQL-констант: {}", candidate.getBeanClassName(), e.getMessage());
+            }
+        }
+        log.info("Собрано SQL-констант для метрик: {} запросов, {} шаблонов", exact.size(), templates.size());
+    }
+
+    /**
+     * Имя константы для текста запроса; storage — простое имя класса текущего метода хранилища или null.
+     */
+    String resolve(String sql, String storage) {
+        List<String> names = exact.get(sql);
+        if (names != null) {
+            if (names.size() > 1 && storage != null) {
+                for (String name : names) {
+                    if (name.startsWith(storage + ".")) {
+                        return name;
+                    }
+                }
+            }
+            return names.get(0);
+        }
+        String name = formatted.get(sql);
+        if (name != null) {
+            return name;
+        }
+        name = OTHER;
+        for (Map.Entry<Pattern, String> template : templates.entrySet()) {
+            if (template.getKey().matcher(sql).matches()) {
+                name = template.getValue();
+                break;
+            }
+        }
+        if (name == OTHER) {
+            // константа, к которой в коде дописано условие: берется самая длинная подходящая
+            int longest = 0;
+            for (Map.Entry<String, List<String>> constant : exact.entrySet()) {
+                if (constant.getKey().length() > longest && sql.startsWith(constant.getKey())) {
+                    longest = constant.getKey().length();
+                    name = constant.getValue().get(0);
+                }
+            }
+        }
+        if (formatted.size() < MAX_CACHED_FORMATTED && formatted.putIfAbsent(sql, name) == null && name == OTHER) {
+            log.debug("Запрос без SQL-константы: {}", sql);
+        }
+        return name;
+    }
+
+    private void collect(Class<?> type) {
+        for (Field field : type.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (field.getType() != String.class || !Modifier.isStatic(modifiers) || !Modifier.isFinal(modifiers)) {
+                continue;
+            }
+            field.setAccessible(true);
+            String sql;
+            try {
+                sql = (String) field.get(null);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+            if (sql == null || !SQL_START.matcher(sql).find()) {
+                continue;
+            }
+            String name = type.getSimpleName() + "." + field.getName();
+            if (FORMAT_PLACEHOLDER.matcher(sql).find()) {
+                StringBuilder regex = new StringBuilder();
+                for (String part : FORMAT_PLACEHOLDER.split(sql, -1)) {
+                    if (!regex.isEmpty()) {
+                        regex.append(".*?");
+                    }
+                    regex.append(Pattern.quote(part));
+                }
+                templates.put(Pattern.compile(regex.toString(), Pattern.DOTALL), name);
+            } else {
+                exact.computeIfAbsent(sql, key -> new ArrayList<>(1)).add(name);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Счетчики SQL одного HTTP-запроса: число выполнений, суммарное время в БД и число выполнений каждой формы запроса.
+ * Форма — имя SQL-константы, а для запросов без константы — сам текст с параметрами-заглушками.
+ * Статистика привязана к потоку обработки запроса; запросы из фоновых потоков (запись событий) в нее не попадают.
+ */
+final class SqlRequestStats {
+    private static final ThreadLocal<SqlRequestStats> CURRENT = new ThreadLocal<>();
+
+    private int statements;
+    private long nanos;
+    private final Map<String, Integer> shapes = new HashMap<>();
+
+    static SqlRequestStats begin() {
+        SqlRequestStats stats = new SqlRequestStats();
+        CURRENT.set(stats);
+        return stats;
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    static SqlRequestStats current() {
+        return CURRENT.get();
+    }
+
+    void record(String shape, long nanos) {
+        statements++;
+        this.nanos += nanos;
+        shapes.merge(shape, 1, Integer::sum);
+    }
+
+    int statements() {
+        return statements;
+    }
+
+    long nanos() {
+        return nanos;
+    }
+
+    /**
+     * Формы, выполненные не меньше threshold раз, от самой частой.
+     */
+    Map<String, Integer> repeated(int threshold) {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        shapes.entrySet().stream()
+                .filter(entry -> entry.getValue() >= threshold)
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+        return result;
+    }
+}
@@ -0,0 +1,162 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Считает SQL на каждый HTTP-запрос и ищет признаки N+1: одна и та же форма запроса, выполненная
+ * repeat-threshold и больше раз за запрос, пишется в лог и в счетчик filmorate.sql.repeated с тегами uri и query.
+ * Число запросов к БД на HTTP-запрос публикуется распределением filmorate.sql.per_request.
+ * <p>
+ * С filmorate.sql.stats-headers=true (разработка и тесты) счетчики возвращаются в заголовках ответа:
+ * X-Sql-Statements, X-Sql-Time-Ms и X-Sql-Repeated. Заголовки дописываются перед первой записью тела,
+ * когда обработчик уже выполнил все запросы, поэтому тело ответа не буферизуется.
+ */
+@Slf4j
+@Component
+public class SqlRequestStatsFilter extends OncePerRequestFilter {
+    public static final String STATEMENTS_HEADER = "X-Sql-Statements";
+    public static final String TIME_HEADER = "X-Sql-Time-Ms";
+    public static final String REPEATED_HEADER = "X-Sql-Repeated";
+    private static final String UNKNOWN_URI = "UNKNOWN";
+    private static final int MAX_LABEL_LENGTH = 100;
+
+    private final ObjectProvider<MeterRegistry> registryProvider;
+    private final boolean statsHeaders;
+    private final int repeatThreshold;
+
+    public SqlRequestStatsFilter(ObjectProvider<MeterRegistry> registryProvider,
+                                 @Value("${filmorate.sql.stats-headers:false}") boolean statsHeaders,
+                                 @Value("${filmorate.sql.repeat-threshold:10}") int repeatThreshold) {
+        this.registryProvider = registryProvider;
+        this.statsHeaders = statsHeaders;
+        this.repeatThreshold = repeatThreshold;
+    }
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response,
+                                    @NonNull FilterChain chain) throws ServletException, IOException {
+        SqlRequestStats stats = SqlRequestStats.begin();
+        try {
+            if (statsHeaders) {
+                StatsHeadersResponse wrapped = new StatsHeadersResponse(response, stats);
+                chain.doFilter(request, wrapped);
+                wrapped.writeHeaders();
+            } else {
+                chain.doFilter(request, response);
+            }
+        } finally {
+            SqlRequestStats.end();
+            report(request, stats);
+        }
+    }
+
+    private void report(HttpServletRequest request, SqlRequestStats stats) {
+        if (stats.statements() == 0) {
+            return;
+        }
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern != null ? pattern.toString() : UNKNOWN_URI;
+        Map<String, Integer> repeated = stats.repeated(repeatThreshold);
+        if (!repeated.isEmpty()) {
+            log.warn("Возможный N+1 в {} {}: {} запросов к БД, повторы {}", request.getMethod(), uri,
+                    stats.statements(), repeated);
+        }
+        MeterRegistry registry = registryProvider.getIfAvailable();
+        if (registry == null) {
+            return;
+        }
+        DistributionSummary.builder("filmorate.sql.per_request")
+                .description("Число SQL-запросов на HTTP-запрос")
+                .tag("uri", uri)
+                .register(registry)
+                .record(stats.statements());
+        repeated.forEach((shape, count) -> Counter.builder("filmorate.sql.repeated")
+                .description("HTTP-запросы, в которых одна форма SQL выполнялась repeat-threshold и больше раз")
+                .tag("uri", uri)
+                .tag("query", label(shape))
+                .register(registry)
+                .increment());
+    }
+
+    // текст запроса без константы бывает многострочным и длинным, в тег и заголовок идет его начало
+    private static String label(String shape) {
+        String line = shape.replaceAll("\\s+", " ").trim();
+        return line.length() > MAX_LABEL_LENGTH ? line.substring(0, MAX_LABEL_LENGTH) : line;
+    }
+
+    private final class StatsHeadersResponse extends HttpServletResponseWrapper {
+        private final SqlRequestStats stats;
+        private boolean headersWritten;
+
+        StatsHeadersResponse(HttpServletResponse response, SqlRequestStats stats) {
+            super(response);
+            this.stats = stats;
+        }
+
+        void writeHeaders() {
+            if (headersWritten || isCommitted()) {
+                return;
+            }
+            headersWritten = true;
+            setIntHeader(STATEMENTS_HEADER, stats.statements());
+            setHeader(TIME_HEADER, String.format(Locale.ROOT, "%.3f", stats.nanos() / 1_000_000.0));
+            Map<String, Integer> repeated = stats.repeated(repeatThreshold);
+            if (!repeated.isEmpty()) {
+                setHeader(REPEATED_HEADER, repeated.entrySet().stream()
+                        .map(entry -> label(entry.getKey()) + "=" + entry.getValue())
+                        .collect(Collectors.joining(", ")));
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            writeHeaders();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            writeHeaders();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            writeHeaders();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            writeHeaders();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            writeHeaders();
+            super.sendError(sc);
+        }
+    }
+}
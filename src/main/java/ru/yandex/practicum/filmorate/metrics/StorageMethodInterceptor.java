@@ -0,0 +1,78 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Таймер filmorate.storage.calls на каждый публичный метод *DbStorage с тегами storage, method и outcome.
+ * Текущий метод хранилища виден в потоке через current(): по нему SQL-метрики помечаются вызывающим методом.
+ * Таймеры создаются один раз на метод, на горячем пути остаются два nanoTime и запись в таймер.
+ */
+class StorageMethodInterceptor implements MethodInterceptor {
+    static final String METRIC = "filmorate.storage.calls";
+
+    private static final ThreadLocal<StorageCall> CURRENT = new ThreadLocal<>();
+
+    private final ObjectProvider<MeterRegistry> registryProvider;
+    private final ConcurrentMap<Method, StorageCall> calls = new ConcurrentHashMap<>();
+
+    StorageMethodInterceptor(ObjectProvider<MeterRegistry> registryProvider) {
+        this.registryProvider = registryProvider;
+    }
+
+    static StorageCall current() {
+        return CURRENT.get();
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        MeterRegistry registry = registryProvider.getIfAvailable();
+        if (registry == null) {
+            return invocation.proceed();
+        }
+        Class<?> targetClass = AopUtils.getTargetClass(invocation.getThis());
+        StorageCall call = calls.computeIfAbsent(invocation.getMethod(),
+                method -> new StorageCall(registry, targetClass.getSimpleName(), method.getName()));
+        StorageCall outer = CURRENT.get();
+        CURRENT.set(call);
+        long started = System.nanoTime();
+        try {
+            Object result = invocation.proceed();
+            call.timers.record(System.nanoTime() - started, true);
+            return result;
+        } catch (Throwable e) {
+            call.timers.record(System.nanoTime() - started, false);
+            throw e;
+        } finally {
+            if (outer != null) {
+                CURRENT.set(outer);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    static final class StorageCall {
+        final String storage;
+        // тег для SQL-метрик: FilmDbStorage.findById
+        final String name;
+        private final OutcomeTimers timers;
+
+        private StorageCall(MeterRegistry registry, String storage, String method) {
+            this.storage = storage;
+            this.name = storage + "." + method;
+            this.timers = new OutcomeTimers(Timer.builder(METRIC)
+                    .description("Время выполнения методов хранилищ")
+                    .tag("storage", storage)
+                    .tag("method", method), registry);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Источник данных, который замеряет каждое выполнение SQL: таймер filmorate.db.statements с тегами
+ * query (имя SQL-константы), caller (метод хранилища, из которого пришел запрос) и outcome.
+ * Выполнение также учитывается в {@link SqlRequestStats} текущего HTTP-запроса.
+ * Соединения и statement оборачиваются динамическими прокси; замеряется только выполнение, без чтения ResultSet.
+ */
+class TimedDataSource extends DelegatingDataSource {
+    static final String METRIC = "filmorate.db.statements";
+    private static final String NO_CALLER = "none";
+
+    private final ObjectProvider<MeterRegistry> registryProvider;
+    private final SqlConstantNames sqlNames;
+    // ключ — имя константы, а не текст: у запросов с IN текст свой для каждого размера списка
+    private final ConcurrentMap<TimerKey, OutcomeTimers> timers = new ConcurrentHashMap<>();
+
+    TimedDataSource(DataSource target, ObjectProvider<MeterRegistry> registryProvider, SqlConstantNames sqlNames) {
+        super(target);
+        this.registryProvider = registryProvider;
+        this.sqlNames = sqlNames;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(super.getConnection(username, password));
+    }
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                new ConnectionHandler(connection));
+    }
+
+    private void record(String sql, long nanos, boolean success) {
+        StorageMethodInterceptor.StorageCall caller = StorageMethodInterceptor.current();
+        String callerName = caller != null ? caller.name : NO_CALLER;
+        String storage = caller != null ? caller.storage : null;
+        String query = sql != null ? sqlNames.resolve(sql, storage) : SqlConstantNames.OTHER;
+        // без реестра (срезы тестов) и до его создания остается только подсчет в рамках HTTP-запроса
+        MeterRegistry registry = registryProvider.getIfAvailable();
+        if (registry != null) {
+            timers.computeIfAbsent(new TimerKey(query, callerName), key -> new OutcomeTimers(Timer.builder(METRIC)
+                    .description("Время выполнения SQL-запросов")
+                    .tag("query", key.query())
+                    .tag("caller", key.caller()), registry)).record(nanos, success);
+        }
+        SqlRequestStats stats = SqlRequestStats.current();
+        if (stats != null) {
+            stats.record(query.equals(SqlConstantNames.OTHER) && sql != null ? sql : query, nanos);
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Connection target;
+
+        ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = TimedDataSource.invoke(target, method, args);
+            if (result instanceof Statement statement) {
+                String sql = args != null && args.length > 0 && args[0] instanceof String text ? text : null;
+                Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                        : statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{type},
+                        new StatementHandler(statement, sql));
+            }
+            return result;
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        // для PreparedStatement — текст при создании, для Statement — последний переданный текст
+        private String sql;
+
+        StatementHandler(Statement target, String sql) {
+            this.target = target;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                if (name.equals("addBatch") && args != null && args.length == 1 && args[0] instanceof String text) {
+                    sql = text;
+                }
+                return TimedDataSource.invoke(target, method, args);
+            }
+            if (args != null && args.length > 0 && args[0] instanceof String text) {
+                sql = text;
+            }
+            long started = System.nanoTime();
+            boolean success = false;
+            try {
+                Object result = TimedDataSource.invoke(target, method, args);
+                success = true;
+                return result;
+            } finally {
+                record(sql, System.nanoTime() - started, success);
+            }
+        }
+    }
+
+    private record TimerKey(String query, String caller) {
+    }
+}
@@ -0,0 +1,16 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.util.List;
+
+/**
+ * Итог пакетного импорта. Принятые элементы получают id подряд в порядке следования во входном массиве:
+ * idRanges перечисляет выданные диапазоны. В errors попадают первые отклоненные элементы с индексом во входном массиве.
+ */
+public record BatchImportResult(int imported, int rejected, List<IdRange> idRanges, List<ItemError> errors) {
+
+    public record IdRange(long from, long to) {
+    }
+
+    public record ItemError(int index, String message) {
+    }
+}
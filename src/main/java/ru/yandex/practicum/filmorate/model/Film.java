@@ -13,12 +13,12 @@ import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import ru.yandex.practicum.filmorate.anotation.NotBefore;
 import ru.yandex.practicum.filmorate.anotation.PositiveDuration;
+import ru.yandex.practicum.filmorate.util.CompressedLongSet;
 import ru.yandex.practicum.filmorate.util.DurationFromMinutesDeserializer;
 import ru.yandex.practicum.filmorate.util.DurationToMinutesSerializer;
 
 import java.time.Duration;
 import java.time.LocalDate;
-import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -47,7 +47,7 @@ public class  Film {
     private LocalDate releaseDate;
 
     @NotNull
-    private Set<Long> likes = new HashSet<>();
+    private Set<Long> likes = new CompressedLongSet();
 
     private Mpa mpa;
 
@@ -0,0 +1,18 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ru.yandex.practicum.filmorate.model.event.Operation;
+
+/**
+ * Элемент пакетной загрузки лайков: поставить (ADD) или снять (REMOVE) лайк пользователя фильму.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LikeOperation {
+    private Long filmId;
+    private Long userId;
+    private Operation op;
+}
@@ -0,0 +1,27 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ru.yandex.practicum.filmorate.model.event.Operation;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LikeOperationResult {
+    private Long filmId;
+    private Long userId;
+    private Operation op;
+    private Status status;
+
+    public enum Status {
+        // лайк поставлен или снят
+        APPLIED,
+        // состояние уже было таким: лайк уже стоял или его не было
+        UNCHANGED,
+        FILM_NOT_FOUND,
+        USER_NOT_FOUND,
+        // не указан фильм, пользователь или операция не ADD/REMOVE
+        INVALID
+    }
+}
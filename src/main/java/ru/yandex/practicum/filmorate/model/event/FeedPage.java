@@ -0,0 +1,9 @@
+package ru.yandex.practicum.filmorate.model.event;
+
+import java.util.List;
+
+/**
+ * Страница ленты событий и курсор следующей страницы (null, если страница последняя).
+ */
+public record FeedPage(List<Event> events, String nextCursor) {
+}
@@ -0,0 +1,172 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.ValidationException;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.BatchImportResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Потоковый импорт JSON-массива: элементы читаются из тела запроса по одному через JsonParser,
+ * проверяются теми же аннотациями, что и при одиночном создании, и пишутся пачками по chunk-size.
+ * В памяти держится только текущая пачка, поэтому размер импорта не ограничен размером кучи.
+ * Некорректный элемент отклоняется и не мешает остальным; пачки, записанные до ошибки разбора JSON, остаются в БД.
+ */
+@Slf4j
+@Component
+public class BatchImporter {
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final int chunkSize;
+
+    public BatchImporter(ObjectMapper objectMapper,
+                         Validator validator,
+                         @Value("${filmorate.import.chunk-size:1000}") int chunkSize) {
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.chunkSize = chunkSize;
+    }
+
+    public <T> BatchImportResult importAll(InputStream body, Class<T> type, Handler<T> handler) {
+        Progress progress = new Progress();
+        List<T> chunk = new ArrayList<>(chunkSize);
+        List<Integer> indexes = new ArrayList<>(chunkSize);
+        int index = 0;
+        try (JsonParser parser = objectMapper.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new ValidationException("Ожидается JSON-массив");
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() == null) {
+                    throw new ValidationException("JSON-массив не закрыт");
+                }
+                // элемент читается деревом, чтобы ошибка преобразования не сбивала разбор следующих элементов
+                JsonNode node = objectMapper.readTree(parser);
+                try {
+                    T item = objectMapper.treeToValue(node, type);
+                    validate(item);
+                    handler.prepare(item);
+                    chunk.add(item);
+                    indexes.add(index);
+                } catch (JsonProcessingException e) {
+                    progress.reject(index, e.getOriginalMessage());
+                } catch (ValidationException | NotFoundException e) {
+                    progress.reject(index, e.getMessage());
+                }
+                index++;
+                if (chunk.size() == chunkSize) {
+                    flush(chunk, indexes, handler, progress);
+                }
+            }
+            flush(chunk, indexes, handler, progress);
+        } catch (JsonProcessingException e) {
+            throw new ValidationException(String.format("Некорректный JSON после элемента %d: %s. Импортировано элементов: %d",
+                    index, e.getOriginalMessage(), progress.imported));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Импорт {}: принято {}, отклонено {}", type.getSimpleName(), progress.imported, progress.rejected);
+        // конфликты пачки выявляются позже ошибок разбора ее элементов
+        progress.errors.sort(Comparator.comparingInt(BatchImportResult.ItemError::index));
+        return new BatchImportResult(progress.imported, progress.rejected, progress.ranges, progress.errors);
+    }
+
+    private <T> void validate(T item) {
+        Set<ConstraintViolation<T>> violations = validator.validate(item);
+        if (!violations.isEmpty()) {
+            throw new ValidationException(violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining("; ")));
+        }
+    }
+
+    private <T> void flush(List<T> chunk, List<Integer> indexes, Handler<T> handler, Progress progress) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            write(chunk, indexes, handler, progress);
+        } catch (DuplicateKeyException e) {
+            // пачка откатилась целиком: одиночная вставка заняла id из диапазона или тот же email
+            log.warn("Конфликт при записи пачки {}, повтор: {}", chunk.get(0).getClass().getSimpleName(), e.getMessage());
+            write(chunk, indexes, handler, progress);
+        }
+        chunk.clear();
+        indexes.clear();
+    }
+
+    // Отклонения фиксируются только после успешной записи, чтобы при повторе пачки не учесть их дважды
+    private <T> void write(List<T> chunk, List<Integer> indexes, Handler<T> handler, Progress progress) {
+        Map<Integer, String> conflicts = handler.checkChunk(chunk);
+        List<T> accepted = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            if (!conflicts.containsKey(i)) {
+                accepted.add(chunk.get(i));
+            }
+        }
+        if (!accepted.isEmpty()) {
+            List<T> saved = handler.save(accepted);
+            progress.accept(handler.idOf(saved.get(0)), handler.idOf(saved.get(saved.size() - 1)), saved.size());
+        }
+        conflicts.forEach((position, message) -> progress.reject(indexes.get(position), message));
+    }
+
+    /**
+     * Проверки и запись элементов конкретного типа.
+     */
+    public interface Handler<T> {
+
+        // Проверки элемента сверх аннотаций; элемент отклоняется исключением ValidationException или NotFoundException
+        void prepare(T item);
+
+        // Проверки, которым нужна БД, одним запросом на пачку: позиции отклоненных элементов и причины
+        Map<Integer, String> checkChunk(List<T> chunk);
+
+        // Записывает пачку одной транзакцией и возвращает элементы с выданными id
+        List<T> save(List<T> chunk);
+
+        long idOf(T item);
+    }
+
+    private static final class Progress {
+        private int imported;
+        private int rejected;
+        private final List<BatchImportResult.IdRange> ranges = new ArrayList<>();
+        private final List<BatchImportResult.ItemError> errors = new ArrayList<>();
+
+        void accept(long fromId, long toId, int count) {
+            imported += count;
+            int last = ranges.size() - 1;
+            if (last >= 0 && ranges.get(last).to() + 1 == fromId) {
+                ranges.set(last, new BatchImportResult.IdRange(ranges.get(last).from(), toId));
+            } else {
+                ranges.add(new BatchImportResult.IdRange(fromId, toId));
+            }
+        }
+
+        void reject(int index, String message) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new BatchImportResult.ItemError(index, message));
+            }
+        }
+    }
+}
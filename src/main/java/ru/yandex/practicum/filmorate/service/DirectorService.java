@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.storage.ReferenceDataCache;
 import ru.yandex.practicum.filmorate.storage.director.DirectorStorage;
 
 import java.util.List;
@@ -15,12 +16,15 @@ import java.util.List;
 @RequiredArgsConstructor
 public class DirectorService {
     private final DirectorStorage directorStorage;
+    private final ReferenceDataCache referenceDataCache;
 
     public Director create(Director director) {
         if (director.getName() == null || director.getName().isBlank()) {
             throw new ValidationException("Имя режиссёра не может быть пустым");
         }
-        return directorStorage.create(director);
+        Director created = directorStorage.create(director);
+        referenceDataCache.invalidateDirector(created.getId());
+        return created;
     }
 
     public Director update(Director director) {
@@ -28,7 +32,9 @@ public class DirectorService {
             throw new NotFoundException("ID режиссёра должен быть указан");
         }
         findById(director.getId());
-        return directorStorage.update(director);
+        Director updated = directorStorage.update(director);
+        referenceDataCache.invalidateDirector(updated.getId());
+        return updated;
     }
 
     public List<Director> findAll() {
@@ -36,12 +42,13 @@ public class DirectorService {
     }
 
     public Director findById(long id) {
-        return directorStorage.findById(id)
+        return referenceDataCache.getDirector(id, directorStorage::findById)
                 .orElseThrow(() -> new NotFoundException("Режиссёр с id=" + id + " не найден"));
     }
 
     public void deleteById(Long id) {
         findById(id);
         directorStorage.deleteById(id);
+        referenceDataCache.invalidateDirector(id);
     }
 }
\ No newline at end of file
@@ -1,22 +1,75 @@
 package ru.yandex.practicum.filmorate.service;
 
+import jakarta.validation.ValidationException;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.FeedPage;
 import ru.yandex.practicum.filmorate.storage.event.EventStorage;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.List;
 
 @Service
 @RequiredArgsConstructor
 public class EventService {
+    public static final int DEFAULT_FEED_PAGE_SIZE = 100;
+    public static final int MAX_FEED_PAGE_SIZE = 1000;
+
     private final EventStorage eventStorage;
 
     public void addEvent(Event event) {
         eventStorage.addEvent(event);
     }
 
+    public void addEvents(List<Event> events) {
+        eventStorage.addEvents(events);
+    }
+
     public List<Event> getFeedForUser(Long userId) {
         return eventStorage.getFeedForUser(userId);
     }
+
+    /**
+     * Страница ленты после курсора. Курсор непрозрачен для клиента: это (ts, event_id) последнего
+     * отданного события в base64url. Без курсора отдается первая страница.
+     */
+    public FeedPage getFeedPage(Long userId, String cursor, Integer size) {
+        int pageSize = size != null ? size : DEFAULT_FEED_PAGE_SIZE;
+        if (pageSize <= 0 || pageSize > MAX_FEED_PAGE_SIZE) {
+            throw new ValidationException("Размер страницы должен быть от 1 до " + MAX_FEED_PAGE_SIZE);
+        }
+        long afterTs = Long.MIN_VALUE;
+        long afterEventId = Long.MIN_VALUE;
+        if (cursor != null) {
+            long[] position = decodeCursor(cursor);
+            afterTs = position[0];
+            afterEventId = position[1];
+        }
+
+        // запрашиваем на одно событие больше, чтобы узнать, есть ли следующая страница
+        List<Event> events = eventStorage.getFeedForUser(userId, afterTs, afterEventId, pageSize + 1);
+        if (events.size() <= pageSize) {
+            return new FeedPage(events, null);
+        }
+        List<Event> page = events.subList(0, pageSize);
+        Event last = page.getLast();
+        return new FeedPage(page, encodeCursor(last.getTimestamp(), last.getEventId()));
+    }
+
+    private static String encodeCursor(long ts, long eventId) {
+        String raw = ts + ":" + eventId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            return new long[]{Long.parseLong(raw.substring(0, separator)), Long.parseLong(raw.substring(separator + 1))};
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new ValidationException("Некорректный курсор ленты: " + cursor);
+        }
+    }
 }
\ No newline at end of file
@@ -6,37 +6,107 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.BatchImportResult;
+import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.LikeOperation;
+import ru.yandex.practicum.filmorate.model.LikeOperationResult;
 import ru.yandex.practicum.filmorate.model.event.Event;
 import ru.yandex.practicum.filmorate.model.event.EventType;
 import ru.yandex.practicum.filmorate.model.event.Operation;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
 
-import java.util.Collection;
-import java.util.List;
+import java.io.InputStream;
+import java.util.*;
 
 @Slf4j
 @Service
 public class FilmService {
+    public static final int MAX_LIKE_BATCH_SIZE = 10_000;
+
     private final FilmStorage filmStorage;
     private final UserService userService;
     private final EventService eventService;
     private final DirectorService directorService;
+    private final MpaService mpaService;
+    private final GenreService genreService;
+    private final BatchImporter batchImporter;
+    private final EntityVersions versions;
+    private final PopularFilmsCache popularFilmsCache;
 
     @Autowired
     public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage, UserService userService,
                        EventService eventService,
-                       DirectorService directorService) {
+                       DirectorService directorService,
+                       MpaService mpaService,
+                       GenreService genreService,
+                       BatchImporter batchImporter,
+                       EntityVersions versions,
+                       PopularFilmsCache popularFilmsCache) {
         this.filmStorage = filmStorage;
         this.userService = userService;
         this.eventService = eventService;
         this.directorService = directorService;
+        this.mpaService = mpaService;
+        this.genreService = genreService;
+        this.batchImporter = batchImporter;
+        this.versions = versions;
+        this.popularFilmsCache = popularFilmsCache;
     }
 
     public Film create(Film film) {
         return filmStorage.create(film);
     }
 
+    /**
+     * Импорт массива фильмов из тела запроса. Рейтинг, жанры и режиссеры проверяются по справочникам в памяти,
+     * поэтому на пачку фильмов приходится одна транзакция из трех batchUpdate.
+     */
+    public BatchImportResult importFilms(InputStream body) {
+        return batchImporter.importAll(body, Film.class, new BatchImporter.Handler<>() {
+            @Override
+            public void prepare(Film film) {
+                if (film.getMpa() == null || film.getMpa().getId() == null) {
+                    throw new ValidationException("Не указан рейтинг MPA");
+                }
+                film.setMpa(mpaService.getById(film.getMpa().getId()));
+                Set<Genre> genres = new LinkedHashSet<>();
+                for (Genre genre : Objects.requireNonNullElse(film.getGenres(), Set.<Genre>of())) {
+                    if (genre.getId() == null) {
+                        throw new ValidationException("Жанр должен иметь ID");
+                    }
+                    genres.add(genreService.findById(genre.getId()));
+                }
+                film.setGenres(genres);
+                Set<Director> directors = new LinkedHashSet<>();
+                for (Director director : Objects.requireNonNullElse(film.getDirectors(), Set.<Director>of())) {
+                    if (director.getId() == null) {
+                        throw new ValidationException("Режиссер должен иметь ID");
+                    }
+                    directors.add(directorService.findById(director.getId()));
+                }
+                film.setDirectors(directors);
+            }
+
+            @Override
+            public Map<Integer, String> checkChunk(List<Film> chunk) {
+                return Map.of();
+            }
+
+            @Override
+            public List<Film> save(List<Film> chunk) {
+                return filmStorage.createAll(chunk);
+            }
+
+            @Override
+            public long idOf(Film film) {
+                return film.getId();
+            }
+        });
+    }
+
     public Collection<Film> findAll() {
         return filmStorage.findAll();
     }
@@ -82,9 +152,89 @@ public class FilmService {
         eventService.addEvent(event);
     }
 
-    public List<Film> getPopularFilms(int count, Long genreId, Integer year) {
+    /**
+     * Пакетная загрузка лайков. Фильмы и пользователи проверяются набором запросов на весь пакет,
+     * корректные операции применяются одной транзакцией, события пишутся одной пачкой.
+     * Ошибка в отдельном элементе не отменяет остальные: у каждого элемента свой статус.
+     */
+    public List<LikeOperationResult> applyLikes(List<LikeOperation> operations) {
+        if (operations.size() > MAX_LIKE_BATCH_SIZE) {
+            throw new ValidationException("В пакете не больше " + MAX_LIKE_BATCH_SIZE + " операций");
+        }
+        Set<Long> filmIds = new HashSet<>();
+        Set<Long> userIds = new HashSet<>();
+        for (LikeOperation operation : operations) {
+            if (operation.getFilmId() != null && operation.getUserId() != null) {
+                filmIds.add(operation.getFilmId());
+                userIds.add(operation.getUserId());
+            }
+        }
+        Set<Long> existingFilms = filmIds.isEmpty() ? Set.of() : filmStorage.findExistingIds(filmIds);
+        Set<Long> existingUsers = userIds.isEmpty() ? Set.of() : userService.findExistingIds(userIds);
+
+        List<LikeOperationResult> results = new ArrayList<>(operations.size());
+        List<LikeOperation> valid = new ArrayList<>();
+        List<LikeOperationResult> validResults = new ArrayList<>();
+        for (LikeOperation operation : operations) {
+            LikeOperationResult result = new LikeOperationResult(operation.getFilmId(), operation.getUserId(),
+                    operation.getOp(), null);
+            if (operation.getFilmId() == null || operation.getUserId() == null
+                    || (operation.getOp() != Operation.ADD && operation.getOp() != Operation.REMOVE)) {
+                result.setStatus(LikeOperationResult.Status.INVALID);
+            } else if (!existingFilms.contains(operation.getFilmId())) {
+                result.setStatus(LikeOperationResult.Status.FILM_NOT_FOUND);
+            } else if (!existingUsers.contains(operation.getUserId())) {
+                result.setStatus(LikeOperationResult.Status.USER_NOT_FOUND);
+            } else {
+                valid.add(operation);
+                validResults.add(result);
+            }
+            results.add(result);
+        }
+        if (valid.isEmpty()) {
+            return results;
+        }
+
+        List<Boolean> changed = filmStorage.applyLikes(valid);
+        List<Event> events = new ArrayList<>();
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < valid.size(); i++) {
+            LikeOperation operation = valid.get(i);
+            if (changed.get(i)) {
+                validResults.get(i).setStatus(LikeOperationResult.Status.APPLIED);
+                events.add(Event.builder()
+                        .timestamp(timestamp)
+                        .userId(operation.getUserId())
+                        .eventType(EventType.LIKE)
+                        .operation(operation.getOp())
+                        .entityId(operation.getFilmId())
+                        .build());
+            } else {
+                validResults.get(i).setStatus(LikeOperationResult.Status.UNCHANGED);
+            }
+        }
+        eventService.addEvents(events);
+        log.info("Пакет лайков: операций {}, применено {}", operations.size(), events.size());
+        return results;
+    }
+
+    public PopularFilmsCache.Page getPopularFilms(int count, Long genreId, Integer year) {
         log.debug("Получение популярных фильмов: count={}, genreId={}, year={}", count, genreId, year);
-        return filmStorage.getPopularFilms(count, genreId, year);
+        return popularFilmsCache.get(count, genreId, year, filmStorage::getPopularFilms);
+    }
+
+    // ETag ответов считаются по версиям в памяти, без обращения к БД
+    public String popularFilmsETag(int count, Long genreId, Integer year) {
+        return popularFilmsCache.servableETag(count, genreId, year);
+    }
+
+    // неизвестный фильм не получает ETag, иначе повтор тега из ответа 404 превратился бы в 304
+    public String filmETag(Long id) {
+        return filmStorage.exists(id) ? versions.filmTag(id) : null;
+    }
+
+    public boolean exists(Long id) {
+        return filmStorage.exists(id);
     }
 
     public Film getFilmOrThrow(Long id) {
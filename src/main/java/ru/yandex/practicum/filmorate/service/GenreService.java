@@ -4,27 +4,27 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Genre;
-import ru.yandex.practicum.filmorate.storage.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.ReferenceDataCache;
 
 import java.util.List;
 
 @Service
 public class GenreService {
-    private final GenreDbStorage genreDbStorage;
+    private final ReferenceDataCache referenceDataCache;
 
     @Autowired
-    public GenreService(GenreDbStorage genreDbStorage) {
-        this.genreDbStorage = genreDbStorage;
+    public GenreService(ReferenceDataCache referenceDataCache) {
+        this.referenceDataCache = referenceDataCache;
     }
 
 
     public List<Genre> findAll() {
-        return genreDbStorage.findAll();
+        return referenceDataCache.getAllGenres();
     }
 
 
     public Genre findById(long id) {
-        return genreDbStorage.findById(id).orElseThrow(() ->
+        return referenceDataCache.getGenre(id).orElseThrow(() ->
                 new NotFoundException("Жанр c " + id + " не найден"));
     }
 }
@@ -5,7 +5,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Mpa;
-import ru.yandex.practicum.filmorate.storage.MpaDbStorage;
+import ru.yandex.practicum.filmorate.storage.ReferenceDataCache;
 
 import java.util.List;
 
@@ -13,21 +13,21 @@ import java.util.List;
 @Service
 public class MpaService {
 
-    private final MpaDbStorage mpaDbStorage;
+    private final ReferenceDataCache referenceDataCache;
 
     @Autowired
-    public MpaService(MpaDbStorage mpaDbStorage) {
-        this.mpaDbStorage = mpaDbStorage;
+    public MpaService(ReferenceDataCache referenceDataCache) {
+        this.referenceDataCache = referenceDataCache;
     }
 
 
     public List<Mpa> findAll() {
-        return mpaDbStorage.findAll();
+        return referenceDataCache.getAllMpa();
     }
 
 
     public Mpa getById(long id) {
-        return mpaDbStorage.findById(id).orElseThrow(() ->
+        return referenceDataCache.getMpa(id).orElseThrow(() ->
                 new NotFoundException("Рейтинг c " + id + " не найден"));
     }
 }
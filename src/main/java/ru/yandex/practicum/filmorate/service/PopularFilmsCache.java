@@ -0,0 +1,248 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кеш ответов GET /films/popular по ключу (genreId, year). Список загружается с запасом, не меньше min-count
+ * фильмов, и меньшие count обслуживаются его началом. Запись помнит версию каталога на момент загрузки:
+ * пока каталог не менялся, она отдается без ограничения по времени. Устаревшая запись отдается еще max-stale-ms
+ * с момента загрузки, а первый такой запрос запускает ее фоновое обновление; позже запрос ждет новую загрузку.
+ * Одновременные загрузки одного ключа объединяются: в БД идет один загрузчик, остальные ждут его результат.
+ * Ключей не больше max-entries: новому ключу освобождают место устаревшие записи, которые уже нельзя отдать,
+ * а если таких нет — запись, к которой дольше всех не обращались.
+ * <p>
+ * Фильмы списка общие для всех ответов и не должны изменяться вызывающим кодом.
+ * Статистика публикуется как метрики cache.* с тегом cache=popular_films.
+ */
+@Slf4j
+@Component
+public class PopularFilmsCache implements MeterBinder {
+    private final EntityVersions versions;
+    private final long maxStaleNanos;
+    private final int minLoadCount;
+    private final int maxEntries;
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // логические часы обращений к записям для вытеснения
+    private final AtomicLong ticks = new AtomicLong();
+
+    public PopularFilmsCache(EntityVersions versions,
+                             @Value("${filmorate.cache.popular.max-stale-ms:0}") long maxStaleMs,
+                             @Value("${filmorate.cache.popular.min-count:100}") int minLoadCount,
+                             @Value("${filmorate.cache.popular.max-entries:256}") int maxEntries) {
+        this.versions = versions;
+        this.maxStaleNanos = TimeUnit.MILLISECONDS.toNanos(maxStaleMs);
+        this.minLoadCount = minLoadCount;
+        this.maxEntries = maxEntries;
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        List<Film> load(int count, Long genreId, Integer year);
+    }
+
+    /**
+     * Первые count фильмов рейтинга и ETag версии каталога, по которой они загружены.
+     */
+    public record Page(String eTag, List<Film> films) {
+    }
+
+    /**
+     * ETag ответа, который get отдаст, если до него ничего не изменится. Считается без обращения к БД.
+     */
+    public String servableETag(int count, Long genreId, Integer year) {
+        long current = versions.catalogVersion();
+        Entry entry = entries.get(new Key(genreId, year));
+        if (entry != null && entry.covers(count) && (entry.version == current || entry.isFresh())) {
+            return versions.catalogTag(entry.version);
+        }
+        return versions.catalogTag(current);
+    }
+
+    public Page get(int count, Long genreId, Integer year, Loader loader) {
+        Key key = new Key(genreId, year);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.covers(count)) {
+            if (entry.version == versions.catalogVersion()) {
+                hits.incrementAndGet();
+                entry.usedAt = ticks.incrementAndGet();
+                return entry.page(count);
+            }
+            if (entry.isFresh()) {
+                staleHits.incrementAndGet();
+                entry.usedAt = ticks.incrementAndGet();
+                refreshInBackground(key, entry.loadedCount, loader);
+                return entry.page(count);
+            }
+        }
+        int loadCount = Math.max(Math.max(count, minLoadCount), entry != null ? entry.loadedCount : 0);
+        Entry loaded = load(key, loadCount, loader);
+        if (!loaded.covers(count)) {
+            // дождались чужой загрузки меньшего списка — загружаем свой
+            loaded = load(key, loadCount, loader);
+        }
+        return loaded.page(count);
+    }
+
+    private Entry load(Key key, int loadCount, Loader loader) {
+        CompletableFuture<Entry> own = new CompletableFuture<>();
+        CompletableFuture<Entry> running = loading.putIfAbsent(key, own);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return await(running);
+        }
+        try {
+            loads.incrementAndGet();
+            // версия читается до данных: изменение во время загрузки оставит запись устаревшей
+            long version = versions.catalogVersion();
+            List<Film> films = List.copyOf(loader.load(loadCount, key.genreId(), key.year()));
+            Entry loaded = new Entry(version, loadCount, films, System.nanoTime());
+            store(key, loaded);
+            own.complete(loaded);
+            return loaded;
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, own);
+        }
+    }
+
+    private void refreshInBackground(Key key, int loadCount, Loader loader) {
+        if (loading.containsKey(key)) {
+            return;
+        }
+        Thread.ofVirtual().name("popular-films-refresh").start(() -> {
+            try {
+                load(key, loadCount, loader);
+            } catch (RuntimeException e) {
+                log.warn("Не удалось обновить популярные фильмы genreId={}, year={}: {}",
+                        key.genreId(), key.year(), e.getMessage());
+            }
+        });
+    }
+
+    private void store(Key key, Entry loaded) {
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            evict();
+        }
+        entries.merge(key, loaded, (old, fresh) -> fresh.version >= old.version ? fresh : old);
+    }
+
+    // Граница мягкая: одновременные загрузки новых ключей могут ненадолго превысить max-entries
+    private void evict() {
+        long current = versions.catalogVersion();
+        Map.Entry<Key, Entry> leastUsed = null;
+        int removed = 0;
+        for (Map.Entry<Key, Entry> candidate : entries.entrySet()) {
+            Entry entry = candidate.getValue();
+            if (entry.version != current && !entry.isFresh()) {
+                if (entries.remove(candidate.getKey(), entry)) {
+                    removed++;
+                }
+            } else if (leastUsed == null || entry.usedAt < leastUsed.getValue().usedAt) {
+                leastUsed = candidate;
+            }
+        }
+        if (removed == 0 && leastUsed != null && entries.remove(leastUsed.getKey(), leastUsed.getValue())) {
+            removed++;
+        }
+        evictions.addAndGet(removed);
+    }
+
+    private static Entry await(CompletableFuture<Entry> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public String getStats() {
+        return String.format("hits=%d, stale=%d, loads=%d, coalesced=%d, evictions=%d, keys=%d",
+                hits.get(), staleHits.get(), loads.get(), coalesced.get(), evictions.get(), entries.size());
+    }
+
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        // stale — ответ из устаревшей записи, пока она обновляется в фоне
+        FunctionCounter.builder("cache.gets", hits, AtomicLong::get).tags("cache", "popular_films", "result", "hit")
+                .description("Ответы из кеша популярных фильмов").register(registry);
+        FunctionCounter.builder("cache.gets", staleHits, AtomicLong::get)
+                .tags("cache", "popular_films", "result", "stale")
+                .description("Ответы из кеша популярных фильмов").register(registry);
+        FunctionCounter.builder("cache.loads", loads, AtomicLong::get).tag("cache", "popular_films")
+                .description("Загрузки рейтинга из хранилища").register(registry);
+        FunctionCounter.builder("cache.loads.coalesced", coalesced, AtomicLong::get).tag("cache", "popular_films")
+                .description("Запросы, дождавшиеся чужой загрузки того же ключа").register(registry);
+        FunctionCounter.builder("cache.evictions", evictions, AtomicLong::get).tag("cache", "popular_films")
+                .description("Ключи, вытесненные из кеша популярных фильмов").register(registry);
+        Gauge.builder("cache.size", entries, Map::size).tag("cache", "popular_films")
+                .description("Ключей в кеше популярных фильмов").register(registry);
+    }
+
+    @PreDestroy
+    public void logStats() {
+        log.info("Статистика кеша популярных фильмов: {}", getStats());
+    }
+
+    private record Key(Long genreId, Integer year) {
+    }
+
+    private final class Entry {
+        private final long version;
+        private final int loadedCount;
+        private final List<Film> films;
+        private final long loadedAt;
+        private volatile long usedAt;
+
+        private Entry(long version, int loadedCount, List<Film> films, long loadedAt) {
+            this.version = version;
+            this.loadedCount = loadedCount;
+            this.films = films;
+            this.loadedAt = loadedAt;
+            this.usedAt = ticks.incrementAndGet();
+        }
+
+        // фильмов меньше загруженного count — в списке весь рейтинг
+        boolean covers(int count) {
+            return count <= loadedCount || films.size() < loadedCount;
+        }
+
+        boolean isFresh() {
+            return System.nanoTime() - loadedAt < maxStaleNanos;
+        }
+
+        Page page(int count) {
+            return new Page(versions.catalogTag(version), films.size() <= count ? films : films.subList(0, count));
+        }
+    }
+}
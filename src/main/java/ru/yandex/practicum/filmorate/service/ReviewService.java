@@ -4,6 +4,7 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
 import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
 import ru.yandex.practicum.filmorate.model.event.Event;
 import ru.yandex.practicum.filmorate.model.event.EventType;
@@ -18,6 +19,7 @@ public class ReviewService {
     private final UserService userService; // Для проверки существования пользователей
     private final FilmService filmService; // Для проверки существования фильмов
     private final EventService eventService; // Зависимость от ленты событий
+    private final EntityVersions versions;
 
     public Review create(Review review) {
         // Проверяем существование пользователя
@@ -72,6 +74,11 @@ public class ReviewService {
                 .orElseThrow(() -> new NotFoundException("Отзыв с ID " + id + " не найден."));
     }
 
+    // отзывы неизвестного фильма отдаются без ETag, как и сам фильм
+    public String reviewsETag(Long filmId) {
+        return filmId == null || filmService.exists(filmId) ? versions.reviewsTag(filmId) : null;
+    }
+
     public List<Review> getReviews(Long filmId, int count) {
         return reviewStorage.findByFilmId(filmId, count);
     }
@@ -5,26 +5,33 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.BatchImportResult;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.model.event.Event;
 import ru.yandex.practicum.filmorate.model.event.EventType;
 import ru.yandex.practicum.filmorate.model.event.Operation;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
-import java.util.Collection;
-import java.util.List;
+import java.io.InputStream;
+import java.util.*;
 
 @Slf4j
 @Service
 public class UserService {
     private final UserStorage userStorage;
     private final EventService eventService;
+    private final BatchImporter batchImporter;
+    private final EntityVersions versions;
 
     @Autowired
-    public UserService(@Qualifier("userDbStorage") UserStorage userStorage, EventService eventService) {
+    public UserService(@Qualifier("userDbStorage") UserStorage userStorage, EventService eventService,
+                       BatchImporter batchImporter, EntityVersions versions) {
         this.userStorage = userStorage;
         this.eventService = eventService;
+        this.batchImporter = batchImporter;
+        this.versions = versions;
     }
 
     public Collection<User> findAll() {
@@ -39,6 +46,44 @@ public class UserService {
         return userStorage.create(user);
     }
 
+    /**
+     * Импорт массива пользователей из тела запроса. Занятые email проверяются одним запросом на пачку;
+     * повтор email внутри пачки отклоняется, а в следующих пачках его найдет тот же запрос.
+     */
+    public BatchImportResult importUsers(InputStream body) {
+        return batchImporter.importAll(body, User.class, new BatchImporter.Handler<>() {
+            @Override
+            public void prepare(User user) {
+                if (user.getName() == null || user.getName().isBlank()) {
+                    user.setName(user.getLogin());
+                }
+            }
+
+            @Override
+            public Map<Integer, String> checkChunk(List<User> chunk) {
+                Set<String> taken = new HashSet<>(userStorage.findExistingEmails(
+                        chunk.stream().map(User::getEmail).toList()));
+                Map<Integer, String> conflicts = new HashMap<>();
+                for (int i = 0; i < chunk.size(); i++) {
+                    if (!taken.add(chunk.get(i).getEmail())) {
+                        conflicts.put(i, "Этот имейл уже используется");
+                    }
+                }
+                return conflicts;
+            }
+
+            @Override
+            public List<User> save(List<User> chunk) {
+                return userStorage.createAll(chunk);
+            }
+
+            @Override
+            public long idOf(User user) {
+                return user.getId();
+            }
+        });
+    }
+
     public User update(User newUser) {
         getUserOrThrow(newUser.getId());
         return userStorage.update(newUser);
@@ -86,8 +131,15 @@ public class UserService {
         eventService.addEvent(event);
     }
 
-    public List<User> getFriends(Long userId) {
+    // Пользователь проверяется до ETag, иначе ответ 404 получил бы тег и его повтор стал бы 304.
+    // id друзей берутся из графа дружбы в памяти, поэтому кроме этой проверки БД не нужна
+    public String friendsETag(Long userId) {
         getUserOrThrow(userId);
+        return versions.friendsTag(userId, userStorage.getFriendIds(userId));
+    }
+
+    // вызывается после friendsETag, который уже проверил пользователя
+    public List<User> getFriends(Long userId) {
         return userStorage.getFriends(userId);
     }
 
@@ -104,6 +156,10 @@ public class UserService {
         return userStorage.getRecommendations(id);
     }
 
+    public Set<Long> findExistingIds(Collection<Long> userIds) {
+        return userStorage.findExistingIds(userIds);
+    }
+
     public void deleteById(Long userId) {
         getUserOrThrow(userId);
         userStorage.deleteById(userId);
@@ -0,0 +1,121 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.util.AfterCommit;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Версии сущностей для ETag условных GET. Хранилища отмечают изменения на своих путях записи,
+ * контроллеры сравнивают версию с If-None-Match до обращения к БД.
+ * <p>
+ * Версия — номер из общего счетчика, взятый при последнем изменении. Отметка ставится после коммита:
+ * ответ, прочитанный до отметки, получит старый ETag и при следующем запросе будет перечитан, а не наоборот.
+ * Счетчики живут в памяти, поэтому в ETag входит метка запуска приложения.
+ */
+@Component
+public class EntityVersions {
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    private final AtomicLong clock = new AtomicLong();
+    // фильм целиком: поля, жанры, режиссеры, лайки
+    private final Stamps films = new Stamps();
+    // профиль пользователя и его список друзей
+    private final Stamps users = new Stamps();
+    // отзывы по id фильма
+    private final Stamps reviews = new Stamps();
+
+    public void touchFilm(long filmId) {
+        AfterCommit.run(() -> films.touch(filmId));
+    }
+
+    public void touchFilms(Collection<Long> filmIds) {
+        AfterCommit.run(() -> filmIds.forEach(films::touch));
+    }
+
+    // изменения, которые затрагивают неизвестный набор фильмов (переименование режиссера)
+    public void touchAllFilms() {
+        AfterCommit.run(films::touchAll);
+    }
+
+    public void touchUser(long userId) {
+        AfterCommit.run(() -> users.touch(userId));
+    }
+
+    public void touchUsers(Collection<Long> userIds) {
+        AfterCommit.run(() -> userIds.forEach(users::touch));
+    }
+
+    public void touchAllUsers() {
+        AfterCommit.run(users::touchAll);
+    }
+
+    public void touchReviews(long filmId) {
+        AfterCommit.run(() -> reviews.touch(filmId));
+    }
+
+    public void touchAllReviews() {
+        AfterCommit.run(reviews::touchAll);
+    }
+
+    public String filmTag(long filmId) {
+        return tag("f", films.version(filmId));
+    }
+
+    // любой фильм каталога, включая лайки
+    public long catalogVersion() {
+        return films.latest();
+    }
+
+    public String catalogTag(long catalogVersion) {
+        return tag("c", catalogVersion);
+    }
+
+    // список друзей меняется вместе с профилем пользователя или профилем любого из друзей
+    public String friendsTag(long userId, long[] friendIds) {
+        long version = users.version(userId);
+        for (long friendId : friendIds) {
+            version = Math.max(version, users.version(friendId));
+        }
+        return tag("u", version);
+    }
+
+    public String reviewsTag(Long filmId) {
+        return tag("r", filmId == null ? reviews.latest() : reviews.version(filmId));
+    }
+
+    private static String tag(String kind, long version) {
+        return "\"" + EPOCH + "-" + kind + Long.toHexString(version) + "\"";
+    }
+
+    private final class Stamps {
+        private final ConcurrentMap<Long, Long> changedAt = new ConcurrentHashMap<>();
+        private final AtomicLong latest = new AtomicLong();
+        private final AtomicLong floor = new AtomicLong();
+
+        void touch(long id) {
+            long stamp = clock.incrementAndGet();
+            changedAt.merge(id, stamp, Math::max);
+            latest.accumulateAndGet(stamp, Math::max);
+        }
+
+        void touchAll() {
+            long stamp = clock.incrementAndGet();
+            floor.accumulateAndGet(stamp, Math::max);
+            latest.accumulateAndGet(stamp, Math::max);
+            // отметки ниже пола больше не влияют на версию
+            changedAt.values().removeIf(changed -> changed < stamp);
+        }
+
+        long version(long id) {
+            return Math.max(changedAt.getOrDefault(id, 0L), floor.get());
+        }
+
+        long latest() {
+            return latest.get();
+        }
+    }
+}
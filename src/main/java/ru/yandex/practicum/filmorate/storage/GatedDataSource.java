@@ -0,0 +1,158 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ограничивает число потоков, одновременно работающих с БД, числом соединений пула. С виртуальными потоками
+ * запросов может быть тысячи: без ограничения все они встают в очередь пула, где ожидание дороже и не видно,
+ * а при недоступности БД каждый держит поток до connectionTimeout. Здесь потоки ждут разрешения на справедливом
+ * семафоре, ожидание паркует виртуальный поток, не занимая поток-носитель.
+ * <p>
+ * Разрешение берется при получении соединения и возвращается при его закрытии. Вложенное получение соединения
+ * в том же потоке (например, {@link IdRangeAllocator} внутри транзакции) идет мимо семафора, иначе поток,
+ * уже держащий разрешение, мог бы ждать сам себя. Поэтому разрешений должно быть меньше соединений пула
+ * на число одновременных вложенных получений — см. {@link JdbcGateConfig}.
+ * <p>
+ * Метрики: таймер ожидания filmorate.jdbc.gate.wait, gauge filmorate.jdbc.gate.waiting и filmorate.jdbc.gate.in_use,
+ * счетчик отказов по таймауту filmorate.jdbc.gate.timeouts.
+ */
+@Slf4j
+public class GatedDataSource extends DelegatingDataSource {
+    private static final ThreadLocal<int[]> HELD = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final Semaphore permits;
+    private final int capacity;
+    private final long timeoutNanos;
+    private final ObjectProvider<MeterRegistry> registryProvider;
+    private volatile Meters meters;
+
+    public GatedDataSource(DataSource target, int capacity, long timeoutMs, ObjectProvider<MeterRegistry> registryProvider) {
+        super(target);
+        this.permits = new Semaphore(capacity, true);
+        this.capacity = capacity;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        this.registryProvider = registryProvider;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        int[] held = HELD.get();
+        if (held[0] > 0) {
+            return getTargetDataSource().getConnection();
+        }
+        acquire();
+        try {
+            Connection connection = getTargetDataSource().getConnection();
+            held[0]++;
+            return release(connection);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        // соединения с другими учетными данными идут в обход пула и ограничения
+        return getTargetDataSource().getConnection(username, password);
+    }
+
+    private void acquire() throws SQLException {
+        Meters current = meters();
+        long started = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Ожидание соединения с БД прервано", e);
+        }
+        if (current != null) {
+            current.wait.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+        if (!acquired) {
+            if (current != null) {
+                current.timeouts.increment();
+            }
+            log.warn("Нет свободного соединения с БД за {} мс, ожидают {}", TimeUnit.NANOSECONDS.toMillis(timeoutNanos),
+                    permits.getQueueLength());
+            throw new SQLTransientConnectionException(String.format("Нет свободного соединения с БД за %d мс",
+                    TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+        }
+    }
+
+    // Оборачивает соединение так, чтобы разрешение вернулось при первом close()
+    private Connection release(Connection connection) {
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("close") && closed.compareAndSet(false, true)) {
+                        try {
+                            connection.close();
+                        } finally {
+                            HELD.get()[0]--;
+                            permits.release();
+                        }
+                        return null;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    // реестр метрик создается позже источника данных, метрики регистрируются при первой возможности
+    private Meters meters() {
+        Meters current = meters;
+        if (current == null) {
+            MeterRegistry registry = registryProvider.getIfAvailable();
+            if (registry != null) {
+                synchronized (this) {
+                    if (meters == null) {
+                        meters = new Meters(registry);
+                    }
+                    current = meters;
+                }
+            }
+        }
+        return current;
+    }
+
+    private final class Meters {
+        private final Timer wait;
+        private final Counter timeouts;
+
+        Meters(MeterRegistry registry) {
+            wait = Timer.builder("filmorate.jdbc.gate.wait")
+                    .description("Ожидание разрешения на соединение с БД")
+                    .register(registry);
+            timeouts = Counter.builder("filmorate.jdbc.gate.timeouts")
+                    .description("Отказы из-за отсутствия свободного соединения с БД")
+                    .register(registry);
+            Gauge.builder("filmorate.jdbc.gate.waiting", permits, Semaphore::getQueueLength)
+                    .description("Потоки, ожидающие соединения с БД")
+                    .register(registry);
+            Gauge.builder("filmorate.jdbc.gate.in_use", permits, semaphore -> capacity - semaphore.availablePermits())
+                    .description("Занятые разрешения на соединение с БД")
+                    .register(registry);
+        }
+    }
+}
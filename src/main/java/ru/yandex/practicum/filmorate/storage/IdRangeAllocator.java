@@ -0,0 +1,64 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Резервирует непрерывные диапазоны id в таблице с identity-столбцом для пакетной вставки:
+ * счетчик identity сдвигается на размер пачки, а строки пачки вставляются с явными id из пропущенного диапазона.
+ * Сдвиг счетчика в H2 — это DDL, который фиксирует текущую транзакцию, поэтому он выполняется в отдельном
+ * соединении. Как и у последовательности, при откате пачки зарезервированные id не возвращаются.
+ * <p>
+ * Одиночная вставка, попавшая между чтением и сдвигом счетчика, может занять первый id диапазона;
+ * тогда вставка пачки упадет на первичном ключе и ее нужно повторить с новым диапазоном.
+ */
+public final class IdRangeAllocator {
+    private static final String SELECT_IDENTITY_BASE_QUERY = "SELECT identity_base FROM information_schema.columns " +
+            "WHERE table_schema = CURRENT_SCHEMA AND table_name = ? AND column_name = ?";
+    private static final String SELECT_MAX_ID_QUERY = "SELECT COALESCE(MAX(%s), 0) FROM %s";
+    private static final String RESTART_IDENTITY_QUERY = "ALTER TABLE %s ALTER COLUMN %s RESTART WITH %d";
+
+    private final String table;
+    private final String column;
+
+    public IdRangeAllocator(String table, String column) {
+        this.table = table;
+        this.column = column;
+    }
+
+    /**
+     * Возвращает первый id диапазона из count id.
+     */
+    public synchronized long reserve(DataSource dataSource, int count) {
+        // соединение берется напрямую из пула, чтобы не попасть в транзакцию вызывающего кода
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            long nextId;
+            try (PreparedStatement ps = connection.prepareStatement(SELECT_IDENTITY_BASE_QUERY)) {
+                ps.setString(1, table.toUpperCase());
+                ps.setString(2, column.toUpperCase());
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    nextId = rs.getLong(1);
+                }
+            }
+            try (Statement statement = connection.createStatement()) {
+                // строки, вставленные с явным id, счетчик identity не двигают
+                try (ResultSet rs = statement.executeQuery(String.format(SELECT_MAX_ID_QUERY, column, table))) {
+                    rs.next();
+                    nextId = Math.max(nextId, rs.getLong(1) + 1);
+                }
+                statement.execute(String.format(RESTART_IDENTITY_QUERY, table, column, nextId + count));
+            }
+            return nextId;
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Не удалось зарезервировать id в таблице " + table, e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.jdbc.DataSourceUnwrapper;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.lang.NonNull;
+
+import javax.sql.DataSource;
+
+/**
+ * Оборачивает источник данных в {@link GatedDataSource}. Число разрешений filmorate.jdbc.gate.permits
+ * по умолчанию равно размеру пула Hikari за вычетом filmorate.jdbc.gate.reserved соединений: они остаются
+ * для вложенных получений соединения, которые идут мимо семафора. Без запаса все соединения пула могут
+ * оказаться у держателей разрешений, и каждый из них будет ждать в пуле вложенное соединение до таймаута.
+ * 0 при пуле другого типа отключает ограничение.
+ */
+@Slf4j
+@Configuration(proxyBeanMethods = false)
+public class JdbcGateConfig {
+    private static final int HIKARI_DEFAULT_POOL_SIZE = 10;
+
+    @Bean
+    static BeanPostProcessor gatedDataSourcePostProcessor(Environment environment,
+                                                          ObjectProvider<MeterRegistry> registryProvider) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(@NonNull Object bean, @NonNull String beanName) {
+                if (!(bean instanceof DataSource dataSource) || bean instanceof GatedDataSource) {
+                    return bean;
+                }
+                int permits = environment.getProperty("filmorate.jdbc.gate.permits", Integer.class, 0);
+                if (permits <= 0) {
+                    HikariConfigMXBean pool = DataSourceUnwrapper.unwrap(dataSource, HikariConfigMXBean.class,
+                            HikariDataSource.class);
+                    if (pool != null) {
+                        // до старта пула Hikari возвращает -1 и подставляет свое значение по умолчанию позже
+                        int poolSize = pool.getMaximumPoolSize() > 0 ? pool.getMaximumPoolSize()
+                                : HIKARI_DEFAULT_POOL_SIZE;
+                        int reserved = environment.getProperty("filmorate.jdbc.gate.reserved", Integer.class, 2);
+                        permits = Math.max(1, poolSize - reserved);
+                    }
+                }
+                if (permits <= 0) {
+                    return bean;
+                }
+                long timeoutMs = environment.getProperty("filmorate.jdbc.gate.timeout-ms", Long.class, 30_000L);
+                log.info("Одновременных обращений к БД не больше {}, ожидание до {} мс", permits, timeoutMs);
+                return new GatedDataSource(dataSource, permits, timeoutMs, registryProvider);
+            }
+        };
+    }
+}
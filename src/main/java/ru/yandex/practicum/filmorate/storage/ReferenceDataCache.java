@@ -0,0 +1,153 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * Справочники в памяти. Рейтинги MPA и жанры заполняются из data.sql и не меняются во время работы,
+ * поэтому загружаются один раз в массивы с доступом по id. Режиссеры кешируются по требованию,
+ * записи сбрасываются при создании, изменении и удалении режиссера.
+ * <p>
+ * Модели справочников изменяемые, поэтому наружу отдаются копии: правка полученного объекта не попадет в кеш.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ReferenceDataCache {
+    private final MpaDbStorage mpaDbStorage;
+    private final GenreDbStorage genreDbStorage;
+
+    private final ConcurrentMap<Long, Director> directors = new ConcurrentHashMap<>();
+    // растет при каждом сбросе режиссера, см. getDirector
+    private final AtomicLong directorInvalidations = new AtomicLong();
+    private volatile Mpa[] mpaById = new Mpa[0];
+    private volatile Genre[] genreById = new Genre[0];
+    private volatile List<Mpa> allMpa = List.of();
+    private volatile List<Genre> allGenres = List.of();
+
+    @PostConstruct
+    public void load() {
+        List<Mpa> mpaList = mpaDbStorage.findAll();
+        Mpa[] mpaArray = new Mpa[maxId(mpaList.stream().map(Mpa::getId).toList()) + 1];
+        for (Mpa mpa : mpaList) {
+            mpaArray[mpa.getId().intValue()] = mpa;
+        }
+
+        List<Genre> genreList = genreDbStorage.findAll();
+        Genre[] genreArray = new Genre[maxId(genreList.stream().map(Genre::getId).toList()) + 1];
+        for (Genre genre : genreList) {
+            genreArray[genre.getId().intValue()] = genre;
+        }
+
+        mpaById = mpaArray;
+        genreById = genreArray;
+        allMpa = List.copyOf(mpaList);
+        allGenres = List.copyOf(genreList);
+        directors.clear();
+        log.info("Справочники загружены: рейтингов MPA {}, жанров {}", mpaList.size(), genreList.size());
+    }
+
+    public Optional<Mpa> getMpa(long id) {
+        Mpa[] array = mpaById;
+        return id > 0 && id < array.length ? Optional.ofNullable(array[(int) id]).map(ReferenceDataCache::copy)
+                : Optional.empty();
+    }
+
+    public Optional<Genre> getGenre(long id) {
+        Genre[] array = genreById;
+        return id > 0 && id < array.length ? Optional.ofNullable(array[(int) id]).map(ReferenceDataCache::copy)
+                : Optional.empty();
+    }
+
+    public List<Mpa> getAllMpa() {
+        return allMpa.stream().map(ReferenceDataCache::copy).toList();
+    }
+
+    public List<Genre> getAllGenres() {
+        return allGenres.stream().map(ReferenceDataCache::copy).toList();
+    }
+
+    public Optional<Director> getDirector(long id, LongFunction<Optional<Director>> loader) {
+        Director cached = directors.get(id);
+        if (cached != null) {
+            return Optional.of(copy(cached));
+        }
+        long invalidations = directorInvalidations.get();
+        Optional<Director> loaded = loader.apply(id);
+        loaded.ifPresent(director -> {
+            Director stored = copy(director);
+            directors.put(id, stored);
+            // сброс во время загрузки мог прийти раньше put и не увидеть запись: она может быть устаревшей
+            if (directorInvalidations.get() != invalidations) {
+                directors.remove(id, stored);
+            }
+        });
+        return loaded;
+    }
+
+    /**
+     * Режиссеры по id: найденные в кеше отдаются сразу, остальные загружаются одним вызовом loader.
+     * Отсутствующих в БД id в результате нет.
+     */
+    public Map<Long, Director> getDirectors(Collection<Long> ids, Function<Collection<Long>, List<Director>> loader) {
+        Map<Long, Director> found = new HashMap<>();
+        Set<Long> missing = new HashSet<>();
+        for (Long id : ids) {
+            Director cached = directors.get(id);
+            if (cached != null) {
+                found.put(id, copy(cached));
+            } else {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return found;
+        }
+        long invalidations = directorInvalidations.get();
+        List<Director> loaded = loader.apply(missing);
+        for (Director director : loaded) {
+            Director stored = copy(director);
+            directors.put(director.getId(), stored);
+            found.put(director.getId(), director);
+        }
+        // как в getDirector: сброс во время загрузки мог не увидеть положенные записи
+        if (directorInvalidations.get() != invalidations) {
+            loaded.forEach(director -> directors.remove(director.getId()));
+        }
+        return found;
+    }
+
+    public void invalidateDirector(long id) {
+        // счетчик меняется до удаления: загрузка, которая положит запись позже, заметит сброс и уберет ее сама
+        directorInvalidations.incrementAndGet();
+        directors.remove(id);
+    }
+
+    private static Mpa copy(Mpa mpa) {
+        return new Mpa(mpa.getId(), mpa.getName());
+    }
+
+    private static Genre copy(Genre genre) {
+        return new Genre(genre.getId(), genre.getName());
+    }
+
+    private static Director copy(Director director) {
+        return new Director(director.getId(), director.getName());
+    }
+
+    private static int maxId(Collection<Long> ids) {
+        return ids.stream().mapToInt(Long::intValue).max().orElse(0);
+    }
+}
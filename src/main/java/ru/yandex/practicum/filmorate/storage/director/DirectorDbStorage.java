@@ -8,8 +8,13 @@ import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
 
 import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,8 +26,12 @@ public class DirectorDbStorage implements DirectorStorage {
     private static final String UPDATE_QUERY = "UPDATE directors SET name = ? WHERE director_id = ?";
     private static final String SELECT_QUERY = "SELECT director_id, name FROM directors";
     private static final String SELECT_QUERY_BY_ID = "SELECT director_id, name FROM directors WHERE director_id = ?";
+    private static final String SELECT_QUERY_BY_IDS = "SELECT director_id, name FROM directors WHERE director_id IN (%s)";
     private static final String DELETE_QUERY_BY_ID = "DELETE FROM directors WHERE director_id = ?";
     private final JdbcTemplate jdbcTemplate;
+    private final FilmSearchIndex searchIndex;
+    private final FilmCache filmCache;
+    private final EntityVersions versions;
 
     @Override
     public Director create(Director director) {
@@ -35,6 +44,7 @@ public class DirectorDbStorage implements DirectorStorage {
 
         Long directorId = keyHolder.getKey().longValue();
         director.setId(directorId);
+        searchIndex.putDirector(directorId, director.getName());
         return director;
     }
 
@@ -44,6 +54,9 @@ public class DirectorDbStorage implements DirectorStorage {
         if (rowsAffected == 0) {
             throw new NotFoundException("Режиссёр с id=" + director.getId() + " не найден");
         }
+        searchIndex.putDirector(director.getId(), director.getName());
+        filmCache.evictByDirector(director.getId());
+        versions.touchAllFilms();
         return director;
     }
 
@@ -68,8 +81,25 @@ public class DirectorDbStorage implements DirectorStorage {
         }, id).stream().findFirst();
     }
 
+    @Override
+    public List<Director> findAllByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String inSql = String.join(",", Collections.nCopies(ids.size(), "?"));
+        return jdbcTemplate.query(String.format(SELECT_QUERY_BY_IDS, inSql), (rs, rowNum) -> {
+            Director director = new Director();
+            director.setId(rs.getLong("director_id"));
+            director.setName(rs.getString("name"));
+            return director;
+        }, ids.toArray());
+    }
+
     @Override
     public void deleteById(Long id) {
         jdbcTemplate.update(DELETE_QUERY_BY_ID, id);
+        searchIndex.removeDirector(id);
+        filmCache.evictByDirector(id);
+        versions.touchAllFilms();
     }
 }
\ No newline at end of file
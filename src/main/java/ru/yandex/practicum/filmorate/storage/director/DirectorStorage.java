@@ -2,6 +2,7 @@ package ru.yandex.practicum.filmorate.storage.director;
 
 import ru.yandex.practicum.filmorate.model.Director;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -10,6 +11,8 @@ public interface DirectorStorage {
 
     Optional<Director> findById(long id);
 
+    List<Director> findAllByIds(Collection<Long> ids);
+
     Director create(Director director);
 
     Director update(Director director);
@@ -6,29 +6,64 @@ import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.mapper.EventMapper;
 import ru.yandex.practicum.filmorate.model.event.Event;
 
-import java.util.List;
+import java.util.*;
 
 @Repository
 @RequiredArgsConstructor
 public class EventDbStorage implements EventStorage {
-    private static final String SELECT_QUERY_BY_ID = "SELECT * FROM events WHERE user_id = ? ORDER BY ts";
-    private static final String INSERT_QUERY = "INSERT INTO events (ts, user_id, event_type, operation, entity_id) " +
-            "VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT_QUERY_BY_ID = "SELECT * FROM events WHERE user_id = ? ORDER BY ts, event_id";
+    // условие раскрыто, чтобы H2 использовал индекс (user_id, ts, event_id) как диапазон по ts
+    private static final String SELECT_PAGE_QUERY_BY_ID = "SELECT * FROM events WHERE user_id = ? AND ts >= ? " +
+            "AND (ts > ? OR event_id > ?) ORDER BY ts, event_id LIMIT ?";
+    private static final Comparator<Event> FEED_ORDER = Comparator.comparingLong(Event::getTimestamp)
+            .thenComparingLong(Event::getEventId);
     private final JdbcTemplate jdbcTemplate;
     private final EventMapper eventMapper;
+    private final EventWriter eventWriter;
 
     @Override
     public void addEvent(Event event) {
-        jdbcTemplate.update(INSERT_QUERY,
-                event.getTimestamp(),
-                event.getUserId(),
-                event.getEventType().toString(),
-                event.getOperation().toString(),
-                event.getEntityId());
+        // запись идет пачками в фоне, см. EventWriter
+        eventWriter.write(event);
+    }
+
+    @Override
+    public void addEvents(List<Event> events) {
+        eventWriter.writeAll(events);
     }
 
     @Override
     public List<Event> getFeedForUser(Long userId) {
-        return jdbcTemplate.query(SELECT_QUERY_BY_ID, eventMapper, userId);
+        List<Event> pending = eventWriter.getPending(userId);
+        List<Event> stored = jdbcTemplate.query(SELECT_QUERY_BY_ID, eventMapper, userId);
+        return withPending(stored, pending, Long.MIN_VALUE, Long.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Event> getFeedForUser(Long userId, long afterTs, long afterEventId, int limit) {
+        List<Event> pending = eventWriter.getPending(userId);
+        List<Event> stored = jdbcTemplate.query(SELECT_PAGE_QUERY_BY_ID, eventMapper, userId, afterTs, afterTs, afterEventId, limit);
+        return withPending(stored, pending, afterTs, afterEventId, limit);
+    }
+
+    // Добавляет к прочитанному из БД еще не записанные события пользователя, чтобы он сразу видел свои действия
+    private static List<Event> withPending(List<Event> stored, List<Event> pending, long afterTs, long afterEventId, int limit) {
+        if (pending.isEmpty()) {
+            return stored;
+        }
+        Set<Long> storedIds = new HashSet<>();
+        for (Event event : stored) {
+            storedIds.add(event.getEventId());
+        }
+        List<Event> merged = new ArrayList<>(stored);
+        for (Event event : pending) {
+            boolean afterCursor = event.getTimestamp() > afterTs
+                    || event.getTimestamp() == afterTs && event.getEventId() > afterEventId;
+            if (afterCursor && !storedIds.contains(event.getEventId())) {
+                merged.add(event);
+            }
+        }
+        merged.sort(FEED_ORDER);
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
     }
 }
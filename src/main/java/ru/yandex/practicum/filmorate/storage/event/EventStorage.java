@@ -8,5 +8,10 @@ import java.util.List;
 public interface EventStorage {
     void addEvent(Event event);
 
+    void addEvents(List<Event> events);
+
     List<Event> getFeedForUser(Long userId);
+
+    // События пользователя строго после (afterTs, afterEventId) в порядке (ts, event_id), не больше limit
+    List<Event> getFeedForUser(Long userId, long afterTs, long afterEventId, int limit);
 }
\ No newline at end of file
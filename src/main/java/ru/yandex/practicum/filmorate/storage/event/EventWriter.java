@@ -0,0 +1,389 @@
+package ru.yandex.practicum.filmorate.storage.event;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.EventType;
+import ru.yandex.practicum.filmorate.model.event.Operation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Асинхронная запись событий ленты с групповым коммитом. События попадают в ограниченную
+ * неблокирующую очередь, фоновый поток пишет их пачками через batchUpdate, как только накопится
+ * batch-size событий или пройдет flush-interval-ms. Если очередь переполнена, событие записывается
+ * сразу в потоке запроса. Пока событие не записано, оно видно в ленте своего пользователя через getPending.
+ * <p>
+ * id событий выдает последовательность events_seq блоками по ID_BLOCK_SIZE, поэтому ожидающее событие
+ * уже имеет id в ленте, а несколько экземпляров приложения не выдают одинаковых id. Запись идет через MERGE
+ * по event_id: повтор пачки после неясного исхода коммита не создает дублей и не теряет события.
+ * <p>
+ * Если БД недоступна, пачка дописывается в файл spool-file и остается в ленте как ожидающая. Файл
+ * переносится в БД, когда она снова отвечает, и при следующем запуске, если приложение остановилось раньше.
+ */
+@Slf4j
+@Component
+public class EventWriter {
+    private static final String MERGE_QUERY = "MERGE INTO events (event_id, ts, user_id, event_type, operation, entity_id) " +
+            "KEY (event_id) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String NEXT_ID_BLOCK_QUERY = "SELECT NEXT VALUE FOR events_seq";
+    // совпадает с INCREMENT BY последовательности events_seq в schema.sql
+    private static final int ID_BLOCK_SIZE = 100;
+    // пауза перед повторной попыткой, если БД недоступна
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final int capacity;
+    private final Path spoolFile;
+
+    private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final ConcurrentMap<Long, ConcurrentSkipListMap<Long, Event>> pendingByUser = new ConcurrentHashMap<>();
+    // свободные id текущего блока: [nextEventId, blockEnd)
+    private long nextEventId;
+    private long blockEnd;
+    // события из spool-file, которые еще не перенесены в БД
+    private final List<Event> spooled = new ArrayList<>();
+    private volatile boolean running;
+    private Thread writerThread;
+    // пачка, которую не удалось ни записать, ни сохранить в файл; трогает только поток записи
+    private List<Event> failedBatch;
+
+    public EventWriter(JdbcTemplate jdbcTemplate,
+                       TransactionTemplate transactionTemplate,
+                       @Value("${filmorate.events.batch-size:100}") int batchSize,
+                       @Value("${filmorate.events.flush-interval-ms:50}") long flushIntervalMs,
+                       @Value("${filmorate.events.queue-capacity:10000}") int capacity,
+                       @Value("${filmorate.events.spool-file:./db/events.spool}") Path spoolFile) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.capacity = capacity;
+        this.spoolFile = spoolFile;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        loadSpool();
+        try {
+            replaySpool();
+        } catch (DataAccessException | TransactionException e) {
+            log.error("Не удалось перенести в БД {} событий из {}, повтор в фоне", spooled.size(), spoolFile, e);
+        }
+        running = true;
+        writerThread = new Thread(this::run, "event-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writerThread);
+        writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        if (writerThread.isAlive()) {
+            // поток записи завис на БД: его пачку и failedBatch трогать нельзя, остаток очереди уходит в файл
+            log.warn("Поток записи событий не завершился за 10 с");
+            spoolOnStop(pollBatch(Integer.MAX_VALUE));
+            return;
+        }
+        // поток записи завершен, дописываем остаток в текущем потоке
+        try {
+            while (hasWork()) {
+                flushBatch();
+            }
+            replaySpool();
+            log.info("Запись событий остановлена, очередь сброшена");
+        } catch (DataAccessException | TransactionException e) {
+            List<Event> rest = failedBatch != null ? new ArrayList<>(failedBatch) : new ArrayList<>();
+            rest.addAll(pollBatch(Integer.MAX_VALUE));
+            spoolOnStop(rest);
+        }
+    }
+
+    private void spoolOnStop(List<Event> rest) {
+        try {
+            spool(rest);
+            log.warn("При остановке {} незаписанных событий остаются в {}", rest.size(), spoolFile);
+        } catch (UncheckedIOException e) {
+            log.error("При остановке не удалось записать {} событий", rest.size(), e);
+        }
+    }
+
+    public void write(Event event) {
+        writeAll(List.of(event));
+    }
+
+    public void writeAll(List<Event> events) {
+        assignIds(events);
+        List<Event> overflow = new ArrayList<>();
+        for (Event event : events) {
+            if (!enqueue(event)) {
+                overflow.add(event);
+            }
+        }
+        if (!overflow.isEmpty()) {
+            // очередь переполнена — пишем сразу, чтобы не терять события и притормозить источник
+            log.warn("Очередь событий переполнена, {} событий записываются синхронно", overflow.size());
+            try {
+                insert(overflow);
+            } catch (DataIntegrityViolationException e) {
+                insertOneByOne(overflow);
+            } catch (DataAccessException | TransactionException e) {
+                spoolOrThrow(overflow, e);
+            }
+        }
+        if (queued.get() >= batchSize) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    // id берутся блоком из последовательности: одно обращение к БД на ID_BLOCK_SIZE событий
+    private synchronized void assignIds(List<Event> events) {
+        for (Event event : events) {
+            if (nextEventId == blockEnd) {
+                Long blockStart = jdbcTemplate.queryForObject(NEXT_ID_BLOCK_QUERY, Long.class);
+                nextEventId = blockStart;
+                blockEnd = blockStart + ID_BLOCK_SIZE;
+            }
+            event.setEventId(nextEventId++);
+        }
+    }
+
+    // Ставит событие в очередь; false — очередь переполнена, событие нужно записать синхронно
+    private boolean enqueue(Event event) {
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            return false;
+        }
+        addPending(event);
+        queue.offer(event);
+        return true;
+    }
+
+    /**
+     * События пользователя, которые еще не записаны или записываются прямо сейчас.
+     * Вызывать до чтения из БД: событие пропадает отсюда только после записи, поэтому при таком
+     * порядке оно обязательно окажется хотя бы в одном из двух источников.
+     */
+    public List<Event> getPending(long userId) {
+        ConcurrentSkipListMap<Long, Event> pending = pendingByUser.get(userId);
+        return pending != null ? new ArrayList<>(pending.values()) : Collections.emptyList();
+    }
+
+    private void run() {
+        while (running) {
+            if (queued.get() < batchSize) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+            try {
+                while (running && hasWork()) {
+                    flushBatch();
+                }
+                replaySpool();
+            } catch (DataAccessException | TransactionException e) {
+                log.error("Не удалось записать события, повтор через {} мс", RETRY_DELAY_MS, e);
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY_MS));
+            }
+        }
+    }
+
+    private boolean hasWork() {
+        return failedBatch != null || !queue.isEmpty();
+    }
+
+    private void flushBatch() {
+        List<Event> batch = failedBatch != null ? failedBatch : pollBatch(batchSize);
+        failedBatch = null;
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            try {
+                insert(batch);
+            } catch (DataIntegrityViolationException e) {
+                // пачка откатилась целиком из-за отдельных строк, например пользователь уже удален
+                insertOneByOne(batch);
+            }
+            batch.forEach(this::removePending);
+        } catch (DataAccessException | TransactionException e) {
+            try {
+                // повтор из файла безопасен: MERGE по event_id не создаст дублей, если коммит все же прошел
+                spool(batch);
+                log.warn("БД недоступна, {} событий сохранены в {}", batch.size(), spoolFile);
+            } catch (UncheckedIOException spoolError) {
+                log.error("Не удалось сохранить события в {}", spoolFile, spoolError);
+                failedBatch = batch;
+            }
+            throw e;
+        } finally {
+            if (failedBatch == null) {
+                queued.addAndGet(-batch.size());
+            }
+        }
+    }
+
+    private List<Event> pollBatch(int limit) {
+        List<Event> batch = new ArrayList<>(Math.min(limit, batchSize));
+        Event event;
+        while (batch.size() < limit && (event = queue.poll()) != null) {
+            batch.add(event);
+        }
+        return batch;
+    }
+
+    // Строки, которые нарушают внешний ключ, относятся к удаленному пользователю: каскад удалил бы их вместе с ним
+    private void insertOneByOne(List<Event> batch) {
+        for (Event event : batch) {
+            try {
+                insert(List.of(event));
+            } catch (DataIntegrityViolationException e) {
+                log.warn("Событие {} пользователя {} не записано: {}", event.getEventId(), event.getUserId(), e.getMessage());
+            }
+        }
+    }
+
+    // Пачка пишется в одной транзакции: один коммит на всю пачку вместо коммита на каждое событие
+    private void insert(List<Event> events) {
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(MERGE_QUERY, events, events.size(), (ps, event) -> {
+            ps.setLong(1, event.getEventId());
+            ps.setLong(2, event.getTimestamp());
+            ps.setLong(3, event.getUserId());
+            ps.setString(4, event.getEventType().toString());
+            ps.setString(5, event.getOperation().toString());
+            ps.setLong(6, event.getEntityId());
+        }));
+    }
+
+    private void spoolOrThrow(List<Event> events, RuntimeException cause) {
+        try {
+            spool(events);
+            log.warn("БД недоступна, {} событий сохранены в {}", events.size(), spoolFile);
+        } catch (UncheckedIOException e) {
+            cause.addSuppressed(e);
+            throw cause;
+        }
+    }
+
+    // Дописывает события в файл с принудительным сбросом на диск; в ленте они остаются ожидающими до переноса в БД
+    private void spool(List<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (Event event : events) {
+            lines.append(event.getEventId()).append(',').append(event.getTimestamp()).append(',')
+                    .append(event.getUserId()).append(',').append(event.getEventType()).append(',')
+                    .append(event.getOperation()).append(',').append(event.getEntityId()).append('\n');
+        }
+        synchronized (spooled) {
+            try {
+                if (spoolFile.getParent() != null) {
+                    Files.createDirectories(spoolFile.getParent());
+                }
+                try (FileChannel channel = FileChannel.open(spoolFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            spooled.addAll(events);
+            events.forEach(this::addPending);
+        }
+    }
+
+    private void loadSpool() throws IOException {
+        if (!Files.exists(spoolFile)) {
+            return;
+        }
+        synchronized (spooled) {
+            for (String line : Files.readAllLines(spoolFile, StandardCharsets.UTF_8)) {
+                String[] fields = line.split(",");
+                // последняя строка может быть оборвана, если процесс упал во время записи
+                if (fields.length != 6) {
+                    continue;
+                }
+                Event event = Event.builder()
+                        .eventId(Long.parseLong(fields[0]))
+                        .timestamp(Long.parseLong(fields[1]))
+                        .userId(Long.parseLong(fields[2]))
+                        .eventType(EventType.valueOf(fields[3]))
+                        .operation(Operation.valueOf(fields[4]))
+                        .entityId(Long.parseLong(fields[5]))
+                        .build();
+                spooled.add(event);
+                addPending(event);
+            }
+        }
+        log.info("В {} найдено {} незаписанных событий", spoolFile, spooled.size());
+    }
+
+    private void replaySpool() {
+        synchronized (spooled) {
+            if (spooled.isEmpty()) {
+                return;
+            }
+            for (int from = 0; from < spooled.size(); from += batchSize) {
+                List<Event> batch = spooled.subList(from, Math.min(from + batchSize, spooled.size()));
+                try {
+                    insert(batch);
+                } catch (DataIntegrityViolationException e) {
+                    insertOneByOne(batch);
+                }
+            }
+            try {
+                Files.deleteIfExists(spoolFile);
+            } catch (IOException e) {
+                // повторный перенос того же файла безопасен благодаря MERGE
+                log.warn("Не удалось удалить {}: {}", spoolFile, e.getMessage());
+            }
+            log.info("{} событий перенесены в БД из {}", spooled.size(), spoolFile);
+            spooled.forEach(this::removePending);
+            spooled.clear();
+        }
+    }
+
+    private void addPending(Event event) {
+        pendingByUser.computeIfAbsent(event.getUserId(), id -> new ConcurrentSkipListMap<>())
+                .put(event.getEventId(), event);
+    }
+
+    private void removePending(Event event) {
+        pendingByUser.computeIfPresent(event.getUserId(), (userId, pending) -> {
+            pending.remove(event.getEventId());
+            return pending.isEmpty() ? null : pending;
+        });
+    }
+}
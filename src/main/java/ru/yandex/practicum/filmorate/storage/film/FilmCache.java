@@ -0,0 +1,259 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.util.AfterCommit;
+import ru.yandex.practicum.filmorate.util.CompressedLongSet;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Ограниченный LRU-кеш полностью загруженных фильмов перед FilmDbStorage.findById.
+ * Хранит собственные копии и отдает копии наружу, поэтому вызывающий код может менять полученный фильм.
+ * Изменения после записи в БД применяются после коммита транзакции. Чтобы загрузка из БД,
+ * начатая до такого изменения, не положила в кеш устаревший фильм, каждое изменение помечает фильм
+ * номером версии, и putLoaded отклоняет снимки, прочитанные раньше этой версии.
+ * <p>
+ * Статистика публикуется как метрики cache.* с тегом cache=films.
+ */
+@Slf4j
+@Component
+public class FilmCache implements MeterBinder {
+    private final int maxSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Film> films;
+    private final Map<Long, Long> modifiedAt = new HashMap<>();
+    private long version;
+    private long staleBefore;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public FilmCache(@Value("${filmorate.cache.films.max-size:10000}") int maxSize) {
+        this.maxSize = maxSize;
+        this.films = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Film> eldest) {
+                if (size() > FilmCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Optional<Film> get(long filmId) {
+        lock.lock();
+        try {
+            Film film = films.get(filmId);
+            if (film == null) {
+                misses.incrementAndGet();
+                return Optional.empty();
+            }
+            hits.incrementAndGet();
+            return Optional.of(copyOf(film));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Проверка лайка без копирования фильма; null — фильма нет в кеше
+    public Boolean hasLike(long filmId, long userId) {
+        lock.lock();
+        try {
+            Film film = films.get(filmId);
+            return film != null ? film.getLikes().contains(userId) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Номер версии, который нужно получить до чтения фильма из БД и передать в putLoaded
+    public long loadToken() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void putLoaded(Film film, long token) {
+        Film copy = copyOf(film);
+        lock.lock();
+        try {
+            if (token >= staleBefore && modifiedAt.getOrDefault(copy.getId(), Long.MIN_VALUE) <= token) {
+                films.put(copy.getId(), copy);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(Film film) {
+        Film copy = copyOf(film);
+        AfterCommit.run(() -> {
+            lock.lock();
+            try {
+                markModified(copy.getId());
+                films.put(copy.getId(), copy);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    // Заменяет закешированный фильм новой версией, сохраняя лайки из кеша.
+    // Если фильма в кеше нет, ничего не делает: следующее чтение загрузит его из БД.
+    public void replaceKeepingLikes(Film film) {
+        Film copy = copyOf(film);
+        AfterCommit.run(() -> {
+            lock.lock();
+            try {
+                markModified(copy.getId());
+                Film cached = films.get(copy.getId());
+                if (cached != null) {
+                    copy.setLikes(cached.getLikes());
+                    films.put(copy.getId(), copy);
+                }
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    public void addLike(long filmId, long userId) {
+        patchLikes(filmId, likes -> likes.add(userId));
+    }
+
+    public void removeLike(long filmId, long userId) {
+        patchLikes(filmId, likes -> likes.remove(userId));
+    }
+
+    public void evict(long filmId) {
+        AfterCommit.run(() -> {
+            lock.lock();
+            try {
+                markModified(filmId);
+                if (films.remove(filmId) != null) {
+                    evictions.incrementAndGet();
+                }
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    public void evictByDirector(long directorId) {
+        AfterCommit.run(() -> {
+            lock.lock();
+            try {
+                Iterator<Film> iterator = films.values().iterator();
+                while (iterator.hasNext()) {
+                    Film film = iterator.next();
+                    if (film.getDirectors().stream().anyMatch(d -> d.getId() == directorId)) {
+                        markModified(film.getId());
+                        iterator.remove();
+                        evictions.incrementAndGet();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            return new Stats(films.size(), maxSize, hits.get(), misses.get(), evictions.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        FunctionCounter.builder("cache.gets", hits, AtomicLong::get).tags("cache", "films", "result", "hit")
+                .description("Обращения к кешу фильмов").register(registry);
+        FunctionCounter.builder("cache.gets", misses, AtomicLong::get).tags("cache", "films", "result", "miss")
+                .description("Обращения к кешу фильмов").register(registry);
+        FunctionCounter.builder("cache.evictions", evictions, AtomicLong::get).tag("cache", "films")
+                .description("Фильмы, вытесненные из кеша или сброшенные при изменении").register(registry);
+        Gauge.builder("cache.size", this, cache -> cache.getStats().size()).tag("cache", "films")
+                .description("Фильмов в кеше").register(registry);
+    }
+
+    @PreDestroy
+    public void logStats() {
+        log.info("Статистика кеша фильмов: {}", getStats());
+    }
+
+    private void patchLikes(long filmId, Consumer<Set<Long>> patch) {
+        AfterCommit.run(() -> {
+            lock.lock();
+            try {
+                Film cached = films.get(filmId);
+                markModified(filmId);
+                if (cached != null) {
+                    // наружу отдаются только копии, поэтому закешированный фильм можно менять на месте
+                    patch.accept(cached.getLikes());
+                }
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    private void markModified(long filmId) {
+        version++;
+        modifiedAt.put(filmId, version);
+        if (modifiedAt.size() > maxSize) {
+            // вместо точного учета отклоняем все загрузки, начатые до этого момента
+            modifiedAt.clear();
+            staleBefore = version;
+        }
+    }
+
+    private static Film copyOf(Film film) {
+        Film copy = new Film();
+        copy.setId(film.getId());
+        copy.setName(film.getName());
+        copy.setDescription(film.getDescription());
+        copy.setDuration(film.getDuration());
+        copy.setReleaseDate(film.getReleaseDate());
+        // модели изменяемые, поэтому копируются и вложенные объекты, а не только множества
+        copy.setMpa(film.getMpa() != null ? new Mpa(film.getMpa().getId(), film.getMpa().getName()) : null);
+        copy.setLikes(film.getLikes() != null ? CompressedLongSet.of(film.getLikes()) : new CompressedLongSet());
+        Set<Genre> genres = new LinkedHashSet<>();
+        if (film.getGenres() != null) {
+            film.getGenres().forEach(genre -> genres.add(new Genre(genre.getId(), genre.getName())));
+        }
+        copy.setGenres(genres);
+        Set<Director> directors = new LinkedHashSet<>();
+        if (film.getDirectors() != null) {
+            film.getDirectors().forEach(director -> directors.add(new Director(director.getId(), director.getName())));
+        }
+        copy.setDirectors(directors);
+        return copy;
+    }
+
+    public record Stats(int size, int maxSize, long hits, long misses, long evictions) {
+    }
+}
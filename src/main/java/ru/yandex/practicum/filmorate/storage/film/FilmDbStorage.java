@@ -2,11 +2,16 @@ package ru.yandex.practicum.filmorate.storage.film;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.mapper.FilmMapper;
@@ -14,12 +19,17 @@ import ru.yandex.practicum.filmorate.mapper.FilmWithDetailsMapper;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.LikeOperation;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.event.Operation;
 import ru.yandex.practicum.filmorate.service.DirectorService;
 import ru.yandex.practicum.filmorate.service.GenreService;
 import ru.yandex.practicum.filmorate.service.MpaService;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
 import ru.yandex.practicum.filmorate.storage.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.IdRangeAllocator;
 import ru.yandex.practicum.filmorate.storage.MpaDbStorage;
+import ru.yandex.practicum.filmorate.util.CompressedLongSet;
 
 import java.sql.Date;
 import java.sql.PreparedStatement;
@@ -36,6 +46,8 @@ import java.util.stream.Collectors;
 public class FilmDbStorage implements FilmStorage {
     private static final String DELETE_QUERY = "DELETE FROM likes WHERE film_id = ? AND user_id = ?";
     private static final String INSERT_QUERY = "INSERT INTO films (name, description, release_date, duration, mpa_id) VALUES (?, ?, ?, ?, ?)";
+    private static final String INSERT_WITH_ID_QUERY = "INSERT INTO films (film_id, name, description, release_date, duration, mpa_id) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
     private static final String INSERT_LIKES_QUERY = "INSERT INTO likes (film_id, user_id) VALUES (?, ?)";
     private static final String FIND_ALL_QUERY = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, " +
             "m.mpa_id, m.name AS mpa_name " +
@@ -44,17 +56,12 @@ public class FilmDbStorage implements FilmStorage {
     private static final String INSERT_FILMS_GENRES_QUERY = "INSERT INTO films_genres (film_id, genre_id) VALUES (?, ?)";
     private static final String DELETE_QUERY_FROM_FILMS_GENRES = "DELETE FROM films_genres WHERE film_id = ?";
     private static final String UPDATE_QUERY = "UPDATE films SET name = ?, description = ?, release_date = ?, duration = ?, mpa_id = ? WHERE film_id = ?";
-    private static final String FIND_GENRES_QUERY = "SELECT g.genre_id, g.name FROM genres g " +
-            "JOIN films_genres fg ON g.genre_id = fg.genre_id " +
-            "WHERE fg.film_id=? ORDER BY g.genre_id";
+    private static final String FIND_GENRE_IDS_QUERY = "SELECT genre_id FROM films_genres WHERE film_id = ? ORDER BY genre_id";
     private static final String FIND_FILMS_BY_JOIN_QUERY = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, " +
             "m.mpa_id, m.name AS mpa_name " +
             "FROM films f " +
             "LEFT JOIN mpa m ON f.mpa_id = m.mpa_id " +
             "WHERE f.film_id = ?";
-    private static final String FIND_GENRES_BY_FILM_ID_QUERY = "SELECT g.genre_id, g.name FROM genres g " +
-            "JOIN films_genres fg ON g.genre_id = fg.genre_id " +
-            "WHERE fg.film_id = ? order by g.genre_id";
     private static final String FIND_FILM_COUNT_QUERY = "SELECT f.film_id, f.name, f.description, f.release_date, " +
             "f.duration, f.mpa_id, m.name AS mpa_name, " +
             "COUNT(fl.user_id) AS likes_count " +
@@ -68,29 +75,18 @@ public class FilmDbStorage implements FilmStorage {
     private static final String FIND_DIRECTORS_BY_FILM_ID_QUERY = "SELECT d.director_id, d.name FROM directors d " +
             "JOIN films_directors fd ON d.director_id = fd.director_id " +
             "WHERE fd.film_id = ? ORDER BY d.director_id";
-    private static final String INSERT_QUERY_LIKE_MERGE = "MERGE INTO likes (film_id, user_id) KEY (film_id, user_id) VALUES (?, ?)";
-    private static final String SEARCH_FILMS_BY_TITLE_QUERY = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, " +
-            "m.mpa_id, m.name AS mpa_name " + "FROM films f " +
-            "LEFT JOIN mpa m ON f.mpa_id = m.mpa_id " +
-            "WHERE LOWER(f.name) LIKE LOWER(?) " +
-            "ORDER BY (SELECT COUNT(*) FROM likes l WHERE l.film_id = f.film_id) DESC";
-    private static final String SEARCH_FILMS_BY_DIRECTOR_QUERY = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, " +
-            "m.mpa_id, m.name AS mpa_name " + "FROM films f " +
-            "LEFT JOIN mpa m ON f.mpa_id = m.mpa_id " +
-            "JOIN films_directors fd ON f.film_id = fd.film_id " +
-            "JOIN directors d ON fd.director_id = d.director_id " +
-            "WHERE LOWER(d.name) LIKE LOWER(?) " +
-            "ORDER BY (SELECT COUNT(*) FROM likes l WHERE l.film_id = f.film_id) DESC";
-    private static final String SEARCH_FILMS_BY_TITLE_AND_DIRECTOR_QUERY = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, " + "m.mpa_id, m.name AS mpa_name " + "FROM films f " + "LEFT JOIN mpa m ON f.mpa_id = m.mpa_id " + "LEFT JOIN films_directors fd ON f.film_id = fd.film_id " + "LEFT JOIN directors d ON fd.director_id = d.director_id " + "WHERE LOWER(f.name) LIKE LOWER(?) OR LOWER(d.name) LIKE LOWER(?) " + "ORDER BY (SELECT COUNT(*) FROM likes l WHERE l.film_id = f.film_id) DESC";
-    private static final String SELECT_QUERY_LIKES_BY_ID = "SELECT film_id FROM likes WHERE user_id = ? " +
-            "INTERSECT " + "SELECT film_id FROM likes WHERE user_id = ?";
+    private static final String INSERT_QUERY_LIKE_IF_ABSENT = "INSERT INTO likes (film_id, user_id) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM likes WHERE film_id = ? AND user_id = ?)";
+    private static final String SELECT_FILM_IDS_BY_USER_ID_QUERY = "SELECT film_id FROM likes WHERE user_id = ?";
+    private static final String DECREMENT_LIKES_COUNT_BY_USER_ID_QUERY = "UPDATE films SET likes_count = likes_count - 1 " +
+            "WHERE film_id IN (SELECT film_id FROM likes WHERE user_id = ?)";
+    private static final String DELETE_LIKES_BY_USER_ID_QUERY = "DELETE FROM likes WHERE user_id = ?";
+    private static final String UPDATE_LIKES_COUNT_QUERY = "UPDATE films SET likes_count = likes_count + ? WHERE film_id = ?";
     private static final String DELETE_QUERY_BY_ID = "DELETE FROM films WHERE film_id = ?";
     private static final String SELECT_QUERY_FROM_FILMS = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, "
             + "m.mpa_id, m.name AS mpa_name, "
-            + "GROUP_CONCAT(DISTINCT g.genre_id) AS genre_ids, "
-            + "GROUP_CONCAT(DISTINCT g.name) AS genre_names, "
-            + "GROUP_CONCAT(DISTINCT d.director_id) AS director_ids, "
-            + "GROUP_CONCAT(DISTINCT d.name) AS director_names, "
+            + "GROUP_CONCAT(DISTINCT g.genre_id ORDER BY g.genre_id) AS genre_ids, "
+            + "GROUP_CONCAT(DISTINCT d.director_id ORDER BY d.director_id) AS director_ids, "
             + "GROUP_CONCAT(DISTINCT l.user_id) AS user_likes "
             + "FROM films f " + "JOIN mpa m ON f.mpa_id = m.mpa_id "
             + "LEFT JOIN films_genres fg ON f.film_id = fg.film_id "
@@ -102,6 +98,16 @@ public class FilmDbStorage implements FilmStorage {
             + "GROUP BY f.film_id, m.mpa_id, m.name ";
     private static final String SELECT_LIKES_BY_ID_QUERY = "SELECT user_id FROM likes WHERE film_id = ?";
     private static final String SELECT_COUNT_LIKES_BY_ID_QUERY = "SELECT COUNT(*) FROM likes WHERE film_id = ? AND user_id = ?";
+    private static final String FIND_GENRE_IDS_BY_FILM_IDS_QUERY = "SELECT film_id, genre_id FROM films_genres " +
+            "WHERE film_id IN (%s) ORDER BY film_id, genre_id";
+    private static final String FIND_DIRECTORS_BY_FILM_IDS_QUERY = "SELECT fd.film_id, d.director_id, d.name FROM directors d " +
+            "JOIN films_directors fd ON d.director_id = fd.director_id " +
+            "WHERE fd.film_id IN (%s) ORDER BY fd.film_id, d.director_id";
+    private static final String SELECT_LIKES_BY_FILM_IDS_QUERY = "SELECT film_id, user_id FROM likes WHERE film_id IN (%s)";
+    private static final String SELECT_EXISTING_FILM_IDS_QUERY = "SELECT film_id FROM films WHERE film_id IN (%s)";
+    private static final String SELECT_LIKES_BY_PAIRS_QUERY = "SELECT film_id, user_id FROM likes WHERE (film_id, user_id) IN (%s)";
+    // Ограничение на размер списка IN (...), чтобы не упираться в лимиты драйвера
+    private static final int HYDRATION_CHUNK_SIZE = 1000;
 
     private final JdbcTemplate jdbcTemplate;
     private final MpaService mpaService;
@@ -110,6 +116,13 @@ public class FilmDbStorage implements FilmStorage {
     private final DirectorService directorService;
     private final GenreDbStorage genreDbStorage;
     private final MpaDbStorage mpaDbStorage;
+    private final FilmPopularityIndex popularityIndex;
+    private final FilmSearchIndex searchIndex;
+    private final FilmCache filmCache;
+    private final UserLikesIndex userLikesIndex;
+    private final UserRecommendationIndex recommendationIndex;
+    private final EntityVersions versions;
+    private final IdRangeAllocator idAllocator = new IdRangeAllocator("films", "film_id");
 
 
     @Override
@@ -154,34 +167,89 @@ public class FilmDbStorage implements FilmStorage {
         if (!film.getDirectors().isEmpty()) {
             saveDirectors(newId, film.getDirectors()); // вызов сохранения режиссеров
         }
+        popularityIndex.putFilm(newId, film.getReleaseDate().getYear(), genreIds(film.getGenres()));
+        searchIndex.putFilm(newId, film.getName(), directorIds(film.getDirectors()));
+        versions.touchFilm(newId);
         return findById(newId).orElseThrow(() -> new NotFoundException("Фильм не найден после добавления"));
     }
 
+    /**
+     * Пакетная вставка проверенных фильмов: id берутся из зарезервированного диапазона, поэтому фильмы,
+     * жанры и режиссеры пишутся тремя batchUpdate без чтения сгенерированных ключей и перечитывания фильма.
+     */
+    @Override
+    @Transactional
+    public List<Film> createAll(List<Film> films) {
+        long firstId = idAllocator.reserve(jdbcTemplate.getDataSource(), films.size());
+        List<Object[]> genreRows = new ArrayList<>();
+        List<Object[]> directorRows = new ArrayList<>();
+        for (int i = 0; i < films.size(); i++) {
+            Film film = films.get(i);
+            film.setId(firstId + i);
+            film.getGenres().forEach(genre -> genreRows.add(new Object[]{film.getId(), genre.getId()}));
+            film.getDirectors().forEach(director -> directorRows.add(new Object[]{film.getId(), director.getId()}));
+        }
+        jdbcTemplate.batchUpdate(INSERT_WITH_ID_QUERY, films, films.size(), (ps, film) -> {
+            ps.setLong(1, film.getId());
+            ps.setString(2, film.getName());
+            ps.setString(3, film.getDescription());
+            ps.setDate(4, Date.valueOf(film.getReleaseDate()));
+            if (film.getDuration() != null) {
+                ps.setInt(5, (int) film.getDuration().toMinutes());
+            } else {
+                ps.setNull(5, java.sql.Types.INTEGER);
+            }
+            ps.setLong(6, film.getMpa().getId());
+        });
+        jdbcTemplate.batchUpdate(INSERT_FILMS_GENRES_QUERY, genreRows);
+        jdbcTemplate.batchUpdate(INSERT_FILMS_DIRECTORS_QUERY, directorRows);
+
+        for (Film film : films) {
+            popularityIndex.putFilm(film.getId(), film.getReleaseDate().getYear(), genreIds(film.getGenres()));
+            searchIndex.putFilm(film.getId(), film.getName(), directorIds(film.getDirectors()));
+        }
+        versions.touchFilms(films.stream().map(Film::getId).toList());
+        log.info("Добавлено фильмов пачкой: {}, id с {}", films.size(), firstId);
+        return films;
+    }
+
     @Override
+    @Transactional
     public void removeLike(Long filmId, Long userId) {
-        jdbcTemplate.update(DELETE_QUERY_FROM_FILMS_DIRECTORS_BY_USER_ID, filmId, userId);
+        int rowsDeleted = jdbcTemplate.update(DELETE_QUERY_FROM_FILMS_DIRECTORS_BY_USER_ID, filmId, userId);
+        if (rowsDeleted > 0) {
+            jdbcTemplate.update(UPDATE_LIKES_COUNT_QUERY, -1, filmId);
+            popularityIndex.changeLikes(filmId, -1);
+            filmCache.removeLike(filmId, userId);
+            userLikesIndex.removeLike(filmId, userId);
+            recommendationIndex.onLikeChanged(userId);
+            versions.touchFilm(filmId);
+        }
     }
 
     @Override
+    @Transactional
     public void addLike(Long filmId, Long userId) {
-
-        jdbcTemplate.update(INSERT_QUERY_LIKE_MERGE, filmId, userId);
+        try {
+            int rowsInserted = jdbcTemplate.update(INSERT_QUERY_LIKE_IF_ABSENT, filmId, userId, filmId, userId);
+            if (rowsInserted > 0) {
+                jdbcTemplate.update(UPDATE_LIKES_COUNT_QUERY, 1, filmId);
+                popularityIndex.changeLikes(filmId, 1);
+                filmCache.addLike(filmId, userId);
+                userLikesIndex.addLike(filmId, userId);
+                recommendationIndex.onLikeChanged(userId);
+                versions.touchFilm(filmId);
+            }
+        } catch (DuplicateKeyException e) {
+            // параллельный запрос уже поставил этот лайк — счетчик увеличен им
+            log.debug("Лайк пользователя {} фильму {} уже существует", userId, filmId);
+        }
     }
 
     @Override
     public Collection<Film> findAll() {
         List<Film> films = jdbcTemplate.query(FIND_ALL_QUERY, new FilmMapper());
-
-        for (Film film : films) {
-            // Загрузка жанров
-            List<Genre> genres = jdbcTemplate.query(FIND_GENRES_QUERY, (rs, rowNum) -> new Genre(rs.getLong("genre_id"), rs.getString("name")), film.getId());
-            film.setGenres(new LinkedHashSet<>(genres));
-
-            // Загрузка режиссеров
-            List<Director> directors = jdbcTemplate.query(FIND_DIRECTORS_BY_FILM_ID_QUERY, (rs, rowNum) -> new Director(rs.getLong("director_id"), rs.getString("name")), film.getId());
-            film.setDirectors(new LinkedHashSet<>(directors));
-            loadLikesForFilm(film);
-        }
+        loadDetailsForFilms(films, true);
 
         log.info("Найдено фильмов: {}", films.size());
         return films;
@@ -242,24 +310,35 @@ public class FilmDbStorage implements FilmStorage {
         } else {
             updateDirectors(film.getId(), new HashSet<>());
         }
+        popularityIndex.putFilm(film.getId(), film.getReleaseDate().getYear(),
+                film.getGenres() != null ? genreIds(film.getGenres()) : Collections.emptyList());
+        searchIndex.putFilm(film.getId(), film.getName(),
+                film.getDirectors() != null ? directorIds(film.getDirectors()) : Collections.emptyList());
 
-        List<Genre> genreList = jdbcTemplate.query(FIND_GENRES_QUERY, (rs, rowNum) -> new Genre(rs.getLong("genre_id"), rs.getString("name")), film.getId());
-        film.setGenres(new LinkedHashSet<>(genreList));
+        loadGenresForFilm(film);
 
         List<Director> directorList = jdbcTemplate.query(FIND_DIRECTORS_BY_FILM_ID_QUERY, (rs, rowNum) -> new Director(rs.getLong("director_id"), rs.getString("name")), film.getId());
         film.setDirectors(new LinkedHashSet<>(directorList));
+        filmCache.replaceKeepingLikes(film);
+        versions.touchFilm(film.getId());
 
         return film;
     }
 
     @Override
     public Optional<Film> findById(Long id) {
+        Optional<Film> cached = filmCache.get(id);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        long cacheToken = filmCache.loadToken();
         try {
             Film film = jdbcTemplate.queryForObject(FIND_FILMS_BY_JOIN_QUERY, new FilmMapper(), id);
             if (film != null) {
                 loadGenresForFilm(film);
                 loadDirectorsForFilm(film);
                 loadLikesForFilm(film);
+                filmCache.putLoaded(film, cacheToken);
             }
             return Optional.ofNullable(film);
         } catch (org.springframework.dao.EmptyResultDataAccessException e) {
@@ -272,68 +351,42 @@ public class FilmDbStorage implements FilmStorage {
         try {
             log.debug("getPopularFilms called with count={}, genreId={}, year={}", count, genreId, year);
 
-            StringBuilder sql = new StringBuilder("""
-                    SELECT\s
-                        f.film_id,\s
-                        f.name,\s
-                        f.description,\s
-                        f.release_date,\s
-                        f.duration,\s
-                        f.mpa_id,
-                        m.name as mpa_name,
-                        COUNT(l.user_id) AS likes_count
-                    FROM films f
-                    LEFT JOIN likes l ON f.film_id = l.film_id
-                    LEFT JOIN mpa m ON f.mpa_id = m.mpa_id
-                   \s""");
-
-            List<Object> params = new ArrayList<>();
-
-
-            if (genreId != null && genreId > 0) {
-                sql.append(" INNER JOIN films_genres fg ON f.film_id = fg.film_id");
-            }
-
-            sql.append(" WHERE 1=1");
-
-            // Фильтр по жанру
-            if (genreId != null && genreId > 0) {
-                sql.append(" AND fg.genre_id = ?");
-                params.add(genreId);
-            }
-
-            // Фильтр по году
-            if (year != null && year > 0) {
-                sql.append(" AND EXTRACT(YEAR FROM f.release_date) = ?");
-                params.add(year);
-            }
-
-            sql.append(" GROUP BY f.film_id, f.name, f.description, f.release_date, f.duration, f.mpa_id, m.name");
-            sql.append(" ORDER BY likes_count DESC, f.film_id ASC");
-
-
-            sql.append(" LIMIT ?");
-            params.add(count);
-
-            log.debug("Executing SQL: {}", sql.toString());
-            log.debug("Params: {}", params);
-
-            List<Film> result = jdbcTemplate.query(sql.toString(), this::mapRowToFilm, params.toArray());
-
-            for (Film film : result) {
-                loadGenresForFilm(film);
-                loadDirectorsForFilm(film);
-            }
+            // Порядок берется из рейтинга в памяти (likes_count DESC, film_id ASC),
+            // из БД читаются только строки отобранных фильмов
+            List<Long> filmIds = popularityIndex.getTopFilmIds(count, genreId, year);
+            List<Film> result = findAllByIdsInOrder(filmIds);
+            loadDetailsForFilms(result, false);
 
             log.debug("Successfully found {} films", result.size());
             return result;
 
-        } catch (Exception e) {
+        } catch (DataAccessException e) {
+            // тип исключения сохраняется: по нему ErrorHandler отличает перегрузку БД от прочих ошибок
             log.error("Database error details:", e);
-            throw new RuntimeException("Ошибка базы данных: " + e.getMessage(), e);
+            throw e;
         }
     }
 
+    private List<Film> findAllByIdsInOrder(List<Long> filmIds) {
+        if (filmIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String inSql = String.join(",", Collections.nCopies(filmIds.size(), "?"));
+        Map<Long, Film> filmsById = new HashMap<>();
+        for (Film film : jdbcTemplate.query(String.format(FIND_ALL_QUERY + " WHERE f.film_id IN (%s)", inSql),
+                this::mapRowToFilm, filmIds.toArray())) {
+            filmsById.put(film.getId(), film);
+        }
+        List<Film> result = new ArrayList<>(filmIds.size());
+        for (Long filmId : filmIds) {
+            Film film = filmsById.get(filmId);
+            if (film != null) {
+                result.add(film);
+            }
+        }
+        return result;
+    }
+
     private Film mapRowToFilm(ResultSet rs, int rowNum) throws SQLException {
         Film film = new Film();
         film.setId(rs.getLong("film_id"));
@@ -357,7 +410,7 @@ public class FilmDbStorage implements FilmStorage {
             film.setMpa(mpa);
         }
 
-        film.setLikes(new HashSet<>());
+        film.setLikes(new CompressedLongSet());
         film.setGenres(new LinkedHashSet<>());
 
         return film;
@@ -365,26 +418,59 @@ public class FilmDbStorage implements FilmStorage {
 
     @Override
     public List<Film> getCommonFilms(long userId, long friendId) {
-        List<Long> filmIds = jdbcTemplate.queryForList(SELECT_QUERY_LIKES_BY_ID, Long.class, userId, friendId);
+        // пересечение множеств лайков из индекса, порядок — по счетчику популярности
+        Set<Long> filmIds = userLikesIndex.getCommonFilmIds(userId, friendId);
         if (filmIds.isEmpty()) {
             return Collections.emptyList();
         }
-        String inSql = String.join(",", Collections.nCopies(filmIds.size(), "?"));
-        String sqlGetFilms = String.format(FIND_ALL_QUERY + " WHERE f.film_id IN (%s)", inSql);
-        List<Film> commonFilms = jdbcTemplate.query(sqlGetFilms, new FilmMapper(), filmIds.toArray());
-        // Обогащаем фильмы деталями
-        for (Film film : commonFilms) {
-            loadGenresForFilm(film);
-            loadDirectorsForFilm(film);
-            loadLikesForFilm(film);
-        }
-        // Сортируем в памяти
-        commonFilms.sort((f1, f2) -> Integer.compare(f2.getLikes().size(), f1.getLikes().size()));
-        return commonFilms;
+        return findFullFilmsInOrder(popularityIndex.orderByPopularity(filmIds));
     }
 
     public void deleteById(Long filmId) {
         jdbcTemplate.update(DELETE_QUERY_BY_ID, filmId);
+        popularityIndex.removeFilm(filmId);
+        searchIndex.removeFilm(filmId);
+        filmCache.evict(filmId);
+        // лайкавшие фильм берутся до удаления, а соседи пересчитываются уже по матрице без него
+        Set<Long> likedBy = userLikesIndex.getUserIdsByFilm(filmId);
+        userLikesIndex.removeFilm(filmId);
+        recommendationIndex.onLikesChanged(likedBy);
+        // отзывы фильма удаляются каскадом
+        versions.touchFilm(filmId);
+        versions.touchReviews(filmId);
+    }
+
+    @Override
+    public void removeLikesByUser(Long userId) {
+        List<Long> filmIds = jdbcTemplate.queryForList(SELECT_FILM_IDS_BY_USER_ID_QUERY, Long.class, userId);
+        if (filmIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(DECREMENT_LIKES_COUNT_BY_USER_ID_QUERY, userId);
+        jdbcTemplate.update(DELETE_LIKES_BY_USER_ID_QUERY, userId);
+
+        Map<Long, Integer> deltas = new HashMap<>();
+        for (Long filmId : filmIds) {
+            deltas.put(filmId, -1);
+            filmCache.removeLike(filmId, userId);
+        }
+        popularityIndex.changeLikes(deltas);
+        userLikesIndex.removeUser(userId);
+        recommendationIndex.onUserRemoved(userId);
+        versions.touchFilms(filmIds);
+    }
+
+    @Override
+    public List<Film> getRecommendations(long userId) {
+        return findFullFilmsInOrder(recommendationIndex.getRecommendedFilmIds(userId));
+    }
+
+    private List<Long> genreIds(Set<Genre> genres) {
+        return genres.stream().map(Genre::getId).collect(Collectors.toList());
+    }
+
+    private List<Long> directorIds(Set<Director> directors) {
+        return directors.stream().map(Director::getId).collect(Collectors.toList());
     }
 
     private void saveDirectors(Long filmId, Set<Director> directors) {
@@ -426,7 +512,8 @@ public class FilmDbStorage implements FilmStorage {
         }
 
         try {
-            return jdbcTemplate.query(SELECT_QUERY_FROM_FILMS + orderByClause, filmWithDetailsMapper, directorId);
+            return filmWithDetailsMapper.resolveDirectors(
+                    jdbcTemplate.query(SELECT_QUERY_FROM_FILMS + orderByClause, filmWithDetailsMapper, directorId));
         } catch (Exception e) {
             log.error("Error fetching films for directorId {} with sortBy={}: {}", directorId, sortBy, e.getMessage(), e);
             throw new RuntimeException("Failed to fetch films by director", e);
@@ -439,39 +526,26 @@ public class FilmDbStorage implements FilmStorage {
             return Collections.emptyList();
         }
 
-        String searchPattern = "%" + query.toLowerCase() + "%";
-        List<Film> films;
-
-        if (searchBy.contains("title") && searchBy.contains("director")) {
-            // Поиск и по названию, и по режиссеру
-            films = jdbcTemplate.query(SEARCH_FILMS_BY_TITLE_AND_DIRECTOR_QUERY, new FilmMapper(), searchPattern, searchPattern);
-        } else if (searchBy.contains("director")) {
-            // Поиск только по режиссеру
-            films = jdbcTemplate.query(SEARCH_FILMS_BY_DIRECTOR_QUERY, new FilmMapper(), searchPattern);
-        } else if (searchBy.contains("title")) {
-            // Поиск только по названию
-            films = jdbcTemplate.query(SEARCH_FILMS_BY_TITLE_QUERY, new FilmMapper(), searchPattern);
-        } else {
+        boolean byTitle = searchBy.contains("title");
+        boolean byDirector = searchBy.contains("director");
+        if (!byTitle && !byDirector) {
             throw new IllegalArgumentException("Invalid search parameters: " + searchBy);
         }
 
-        // Загружаем дополнительные данные для каждого фильма
-        for (Film film : films) {
-            // Загрузка жанров
-            List<Genre> genres = jdbcTemplate.query(FIND_GENRES_BY_FILM_ID_QUERY, (rs, rn) -> new Genre(rs.getLong("genre_id"), rs.getString("name")), film.getId());
-            film.setGenres(new LinkedHashSet<>(genres));
+        // Кандидаты ищутся по триграммному индексу, порядок — по числу лайков из рейтинга популярности
+        Set<Long> foundIds = searchIndex.search(query, byTitle, byDirector);
+        List<Film> films = findAllByIdsInOrder(popularityIndex.orderByPopularity(foundIds));
 
-            // Загрузка режиссеров
-            List<Director> directors = jdbcTemplate.query(FIND_DIRECTORS_BY_FILM_ID_QUERY, (rs, rn) -> new Director(rs.getLong("director_id"), rs.getString("name")), film.getId());
-            film.setDirectors(new LinkedHashSet<>(directors));
-        }
+        // Загружаем дополнительные данные для всех фильмов сразу
+        loadDetailsForFilms(films, false);
 
         log.info("Найдено фильмов по запросу '{}' с параметрами {}: {}", query, searchBy, films.size());
         return films;
     }
 
     private void loadGenresForFilm(Film film) {
-        List<Genre> genres = jdbcTemplate.query(FIND_GENRES_QUERY, (rs, rn) -> new Genre(rs.getLong("genre_id"), rs.getString("name")), film.getId());
+        // названия жанров берутся из справочника в памяти, из БД читаются только связи
+        List<Genre> genres = jdbcTemplate.query(FIND_GENRE_IDS_QUERY, (rs, rn) -> genreService.findById(rs.getLong("genre_id")), film.getId());
         film.setGenres(new LinkedHashSet<>(genres));
     }
 
@@ -481,12 +555,250 @@ public class FilmDbStorage implements FilmStorage {
     }
 
     private void loadLikesForFilm(Film film) {
-        List<Long> userIds = jdbcTemplate.queryForList(SELECT_LIKES_BY_ID_QUERY, Long.class, film.getId());
-        film.setLikes(new HashSet<>(userIds));
+        // id пользователей складываются сразу в сжатое множество, без промежуточного списка Long
+        CompressedLongSet likes = new CompressedLongSet();
+        jdbcTemplate.query(SELECT_LIKES_BY_ID_QUERY, rs -> {
+            likes.add(rs.getLong("user_id"));
+        }, film.getId());
+        likes.runOptimize();
+        film.setLikes(likes);
+    }
+
+    /**
+     * Полностью загруженные фильмы (с жанрами, режиссерами и лайками) в порядке переданных id.
+     * Фильмы из кеша берутся сразу, промахи загружаются запросами film_id IN (...) и заодно попадают в кеш.
+     */
+    private List<Film> findFullFilmsInOrder(List<Long> filmIds) {
+        Map<Long, Film> filmsById = new HashMap<>();
+        List<Long> misses = new ArrayList<>();
+        for (Long filmId : filmIds) {
+            Optional<Film> cached = filmCache.get(filmId);
+            if (cached.isPresent()) {
+                filmsById.put(filmId, cached.get());
+            } else {
+                misses.add(filmId);
+            }
+        }
+        if (!misses.isEmpty()) {
+            long cacheToken = filmCache.loadToken();
+            List<Film> films = findAllByIdsInOrder(misses);
+            loadDetailsForFilms(films, true);
+            for (Film film : films) {
+                filmsById.put(film.getId(), film);
+                filmCache.putLoaded(film, cacheToken);
+            }
+        }
+        List<Film> result = new ArrayList<>(filmIds.size());
+        for (Long filmId : filmIds) {
+            Film film = filmsById.get(filmId);
+            if (film != null) {
+                result.add(film);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Загружает жанры, режиссеров и (опционально) лайки для списка фильмов
+     * фиксированным числом запросов вида film_id IN (...), вместо трех запросов на каждый фильм.
+     */
+    private void loadDetailsForFilms(List<Film> films, boolean withLikes) {
+        if (films.isEmpty()) {
+            return;
+        }
+        Map<Long, Film> filmsById = new LinkedHashMap<>();
+        Map<Long, CompressedLongSet> likesById = new HashMap<>();
+        for (Film film : films) {
+            film.setGenres(new LinkedHashSet<>());
+            film.setDirectors(new LinkedHashSet<>());
+            if (withLikes) {
+                CompressedLongSet likes = new CompressedLongSet();
+                film.setLikes(likes);
+                likesById.put(film.getId(), likes);
+            }
+            filmsById.put(film.getId(), film);
+        }
+
+        List<Long> ids = new ArrayList<>(filmsById.keySet());
+        for (int from = 0; from < ids.size(); from += HYDRATION_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + HYDRATION_CHUNK_SIZE, ids.size()));
+            String inSql = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            Object[] params = chunk.toArray();
+
+            jdbcTemplate.query(String.format(FIND_GENRE_IDS_BY_FILM_IDS_QUERY, inSql), rs -> {
+                filmsById.get(rs.getLong("film_id")).getGenres()
+                        .add(genreService.findById(rs.getLong("genre_id")));
+            }, params);
+
+            jdbcTemplate.query(String.format(FIND_DIRECTORS_BY_FILM_IDS_QUERY, inSql), rs -> {
+                filmsById.get(rs.getLong("film_id")).getDirectors()
+                        .add(new Director(rs.getLong("director_id"), rs.getString("name")));
+            }, params);
+
+            if (withLikes) {
+                jdbcTemplate.query(String.format(SELECT_LIKES_BY_FILM_IDS_QUERY, inSql), rs -> {
+                    likesById.get(rs.getLong("film_id")).add(rs.getLong("user_id"));
+                }, params);
+            }
+        }
+        likesById.values().forEach(CompressedLongSet::runOptimize);
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> filmIds) {
+        Set<Long> existing = new HashSet<>();
+        List<Long> ids = new ArrayList<>(new HashSet<>(filmIds));
+        for (int from = 0; from < ids.size(); from += HYDRATION_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + HYDRATION_CHUNK_SIZE, ids.size()));
+            String inSql = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            existing.addAll(jdbcTemplate.queryForList(String.format(SELECT_EXISTING_FILM_IDS_QUERY, inSql), Long.class, chunk.toArray()));
+        }
+        return existing;
+    }
+
+    // по рейтингу популярности в памяти: фильм попадает в него после коммита вставки и уходит после коммита удаления
+    @Override
+    public boolean exists(long filmId) {
+        return popularityIndex.contains(filmId);
+    }
+
+    /**
+     * Применяет операции с лайками по порядку, как если бы они пришли отдельными запросами.
+     * Текущее состояние затронутых пар читается набором запросов, последовательность операций
+     * проигрывается в памяти, а в БД пишется только итоговая разница пачками batchUpdate.
+     * Возвращает для каждой операции, изменила ли она состояние.
+     */
+    @Override
+    @Transactional
+    public List<Boolean> applyLikes(List<LikeOperation> operations) {
+        Set<LikeKey> keys = new LinkedHashSet<>();
+        for (LikeOperation operation : operations) {
+            keys.add(new LikeKey(operation.getFilmId(), operation.getUserId()));
+        }
+        Set<LikeKey> initial = findExistingLikes(keys);
+        Set<LikeKey> liked = new HashSet<>(initial);
+
+        List<Boolean> changed = new ArrayList<>(operations.size());
+        for (LikeOperation operation : operations) {
+            LikeKey key = new LikeKey(operation.getFilmId(), operation.getUserId());
+            changed.add(operation.getOp() == Operation.ADD ? liked.add(key) : liked.remove(key));
+        }
+
+        List<LikeKey> toInsert = new ArrayList<>();
+        List<LikeKey> toDelete = new ArrayList<>();
+        for (LikeKey key : keys) {
+            if (liked.contains(key) && !initial.contains(key)) {
+                toInsert.add(key);
+            } else if (!liked.contains(key) && initial.contains(key)) {
+                toDelete.add(key);
+            }
+        }
+
+        // одинаковый порядок строк во всех пачках (лайки здесь, счетчики фильмов по TreeMap ниже):
+        // встречные пачки не захватывают одни и те же строки накрест
+        Comparator<LikeKey> lockOrder = Comparator.comparingLong(LikeKey::filmId).thenComparingLong(LikeKey::userId);
+        toInsert.sort(lockOrder);
+        toDelete.sort(lockOrder);
+
+        // счетчики меняются по фактически вставленным и удаленным строкам, а не по прочитанному состоянию
+        Map<Long, Integer> deltas = new TreeMap<>();
+        List<LikeKey> added = new ArrayList<>();
+        List<LikeKey> removed = new ArrayList<>();
+        int[] inserted = insertLikes(toInsert);
+        for (int i = 0; i < inserted.length; i++) {
+            if (inserted[i] > 0) {
+                added.add(toInsert.get(i));
+                deltas.merge(toInsert.get(i).filmId(), 1, Integer::sum);
+            }
+        }
+        int[] deleted = jdbcTemplate.batchUpdate(DELETE_QUERY, toDelete.stream()
+                .map(key -> new Object[]{key.filmId(), key.userId()})
+                .collect(Collectors.toList()));
+        for (int i = 0; i < deleted.length; i++) {
+            if (deleted[i] > 0) {
+                removed.add(toDelete.get(i));
+                deltas.merge(toDelete.get(i).filmId(), -1, Integer::sum);
+            }
+        }
+        deltas.values().removeIf(delta -> delta == 0);
+        jdbcTemplate.batchUpdate(UPDATE_LIKES_COUNT_QUERY, deltas.entrySet().stream()
+                .map(entry -> new Object[]{entry.getValue(), entry.getKey()})
+                .collect(Collectors.toList()));
+
+        popularityIndex.changeLikes(deltas);
+        Set<Long> changedFilmIds = new HashSet<>();
+        Set<Long> changedUserIds = new HashSet<>();
+        for (LikeKey key : added) {
+            filmCache.addLike(key.filmId(), key.userId());
+            userLikesIndex.addLike(key.filmId(), key.userId());
+            changedFilmIds.add(key.filmId());
+            changedUserIds.add(key.userId());
+        }
+        for (LikeKey key : removed) {
+            filmCache.removeLike(key.filmId(), key.userId());
+            userLikesIndex.removeLike(key.filmId(), key.userId());
+            changedFilmIds.add(key.filmId());
+            changedUserIds.add(key.userId());
+        }
+        recommendationIndex.onLikesChanged(changedUserIds);
+        versions.touchFilms(changedFilmIds);
+        return changed;
+    }
+
+    private Set<LikeKey> findExistingLikes(Collection<LikeKey> keys) {
+        Set<LikeKey> existing = new HashSet<>();
+        List<LikeKey> list = new ArrayList<>(keys);
+        for (int from = 0; from < list.size(); from += HYDRATION_CHUNK_SIZE) {
+            List<LikeKey> chunk = list.subList(from, Math.min(from + HYDRATION_CHUNK_SIZE, list.size()));
+            String inSql = String.join(",", Collections.nCopies(chunk.size(), "(?, ?)"));
+            Object[] params = new Object[chunk.size() * 2];
+            for (int i = 0; i < chunk.size(); i++) {
+                params[2 * i] = chunk.get(i).filmId();
+                params[2 * i + 1] = chunk.get(i).userId();
+            }
+            jdbcTemplate.query(String.format(SELECT_LIKES_BY_PAIRS_QUERY, inSql), rs -> {
+                existing.add(new LikeKey(rs.getLong("film_id"), rs.getLong("user_id")));
+            }, params);
+        }
+        return existing;
+    }
+
+    // Вызывается внутри транзакции applyLikes
+    private int[] insertLikes(List<LikeKey> keys) {
+        List<Object[]> args = keys.stream()
+                .map(key -> new Object[]{key.filmId(), key.userId(), key.filmId(), key.userId()})
+                .collect(Collectors.toList());
+        TransactionStatus status = TransactionAspectSupport.currentTransactionStatus();
+        Object savepoint = status.createSavepoint();
+        try {
+            int[] inserted = jdbcTemplate.batchUpdate(INSERT_QUERY_LIKE_IF_ABSENT, args);
+            status.releaseSavepoint(savepoint);
+            return inserted;
+        } catch (DuplicateKeyException e) {
+            // параллельный запрос успел поставить часть этих лайков. Строки пачки до ошибки откатываются,
+            // иначе повтор по одному посчитал бы их уже существующими и не учел в счетчиках и индексах
+            status.rollbackToSavepoint(savepoint);
+            int[] inserted = new int[args.size()];
+            for (int i = 0; i < args.size(); i++) {
+                try {
+                    inserted[i] = jdbcTemplate.update(INSERT_QUERY_LIKE_IF_ABSENT, args.get(i));
+                } catch (DuplicateKeyException duplicate) {
+                    inserted[i] = 0;
+                }
+            }
+            return inserted;
+        }
+    }
+
+    private record LikeKey(long filmId, long userId) {
     }
 
     @Override
     public boolean hasLike(Long filmId, Long userId) {
+        Boolean cached = filmCache.hasLike(filmId, userId);
+        if (cached != null) {
+            return cached;
+        }
         Integer count = jdbcTemplate.queryForObject(SELECT_COUNT_LIKES_BY_ID_QUERY, Integer.class, filmId, userId);
         return count != null && count > 0;
     }
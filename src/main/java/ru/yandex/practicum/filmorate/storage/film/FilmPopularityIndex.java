@@ -0,0 +1,224 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.util.AfterCommit;
+
+import java.sql.Date;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Рейтинг популярности фильмов в памяти: общий, в разрезе жанров, годов выпуска и пар (жанр, год).
+ * Порядок совпадает с SQL-вариантом: ORDER BY likes_count DESC, film_id ASC.
+ * Изменения применяются после коммита транзакции, чтобы откат не рассинхронизировал рейтинг с БД.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FilmPopularityIndex {
+    // счетчик likes_count ведется хранилищем вместе с таблицей likes, поэтому лайки не пересчитываются здесь
+    private static final String SELECT_FILMS_WITH_LIKES_QUERY = "SELECT film_id, release_date, likes_count FROM films";
+    private static final String SELECT_FILMS_GENRES_QUERY = "SELECT film_id, genre_id FROM films_genres";
+    private static final Comparator<Ranked> RANK_ORDER = Comparator.comparingInt(Ranked::likes).reversed()
+            .thenComparingLong(Ranked::filmId);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, FilmRank> films = new HashMap<>();
+    private final NavigableSet<Ranked> all = new TreeSet<>(RANK_ORDER);
+    private final Map<Long, NavigableSet<Ranked>> byGenre = new HashMap<>();
+    private final Map<Integer, NavigableSet<Ranked>> byYear = new HashMap<>();
+    private final Map<GenreYear, NavigableSet<Ranked>> byGenreAndYear = new HashMap<>();
+
+    @PostConstruct
+    public void rebuild() {
+        Map<Long, FilmRank> loaded = new HashMap<>();
+        jdbcTemplate.query(SELECT_FILMS_WITH_LIKES_QUERY, rs -> {
+            Date releaseDate = rs.getDate("release_date");
+            Integer year = releaseDate != null ? releaseDate.toLocalDate().getYear() : null;
+            loaded.put(rs.getLong("film_id"), new FilmRank(rs.getInt("likes_count"), year, new HashSet<>()));
+        });
+        jdbcTemplate.query(SELECT_FILMS_GENRES_QUERY, rs -> {
+            FilmRank rank = loaded.get(rs.getLong("film_id"));
+            if (rank != null) {
+                rank.genres().add(rs.getLong("genre_id"));
+            }
+        });
+
+        lock.writeLock().lock();
+        try {
+            films.clear();
+            all.clear();
+            byGenre.clear();
+            byYear.clear();
+            byGenreAndYear.clear();
+            loaded.forEach(this::insert);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Рейтинг популярности построен для {} фильмов", loaded.size());
+    }
+
+    public List<Long> getTopFilmIds(int count, Long genreId, Integer year) {
+        boolean byGenreFilter = genreId != null && genreId > 0;
+        boolean byYearFilter = year != null && year > 0;
+
+        lock.readLock().lock();
+        try {
+            NavigableSet<Ranked> source;
+            if (byGenreFilter && byYearFilter) {
+                source = byGenreAndYear.getOrDefault(new GenreYear(genreId, year), Collections.emptyNavigableSet());
+            } else if (byGenreFilter) {
+                source = byGenre.getOrDefault(genreId, Collections.emptyNavigableSet());
+            } else if (byYearFilter) {
+                source = byYear.getOrDefault(year, Collections.emptyNavigableSet());
+            } else {
+                source = all;
+            }
+
+            List<Long> result = new ArrayList<>(Math.min(count, source.size()));
+            for (Ranked ranked : source) {
+                if (result.size() >= count) {
+                    break;
+                }
+                result.add(ranked.filmId());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // в рейтинге есть каждый фильм каталога, поэтому существование фильма проверяется без БД
+    public boolean contains(long filmId) {
+        lock.readLock().lock();
+        try {
+            return films.containsKey(filmId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Long> orderByPopularity(Collection<Long> filmIds) {
+        List<Ranked> ranked = new ArrayList<>(filmIds.size());
+        lock.readLock().lock();
+        try {
+            for (Long filmId : filmIds) {
+                FilmRank rank = films.get(filmId);
+                ranked.add(new Ranked(filmId, rank != null ? rank.likes() : 0));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        ranked.sort(RANK_ORDER);
+        return ranked.stream().map(Ranked::filmId).collect(Collectors.toList());
+    }
+
+    public void putFilm(long filmId, Integer year, Collection<Long> genreIds) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                FilmRank old = remove(filmId);
+                int likes = old != null ? old.likes() : 0;
+                insert(filmId, new FilmRank(likes, year, new HashSet<>(genreIds)));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void removeFilm(long filmId) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                remove(filmId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void changeLikes(long filmId, int delta) {
+        changeLikes(Map.of(filmId, delta));
+    }
+
+    public void changeLikes(Map<Long, Integer> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                deltas.forEach((filmId, delta) -> {
+                    FilmRank old = remove(filmId);
+                    if (old != null) {
+                        insert(filmId, new FilmRank(old.likes() + delta, old.year(), old.genres()));
+                    }
+                });
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    private void insert(long filmId, FilmRank rank) {
+        Ranked ranked = new Ranked(filmId, rank.likes());
+        films.put(filmId, rank);
+        all.add(ranked);
+        for (Long genreId : rank.genres()) {
+            byGenre.computeIfAbsent(genreId, id -> new TreeSet<>(RANK_ORDER)).add(ranked);
+        }
+        if (rank.year() != null) {
+            byYear.computeIfAbsent(rank.year(), y -> new TreeSet<>(RANK_ORDER)).add(ranked);
+            for (Long genreId : rank.genres()) {
+                byGenreAndYear.computeIfAbsent(new GenreYear(genreId, rank.year()), key -> new TreeSet<>(RANK_ORDER))
+                        .add(ranked);
+            }
+        }
+    }
+
+    private FilmRank remove(long filmId) {
+        FilmRank rank = films.remove(filmId);
+        if (rank == null) {
+            return null;
+        }
+        Ranked ranked = new Ranked(filmId, rank.likes());
+        all.remove(ranked);
+        for (Long genreId : rank.genres()) {
+            NavigableSet<Ranked> set = byGenre.get(genreId);
+            if (set != null) {
+                set.remove(ranked);
+            }
+        }
+        if (rank.year() != null) {
+            NavigableSet<Ranked> set = byYear.get(rank.year());
+            if (set != null) {
+                set.remove(ranked);
+            }
+            for (Long genreId : rank.genres()) {
+                NavigableSet<Ranked> genreYearSet = byGenreAndYear.get(new GenreYear(genreId, rank.year()));
+                if (genreYearSet != null) {
+                    genreYearSet.remove(ranked);
+                }
+            }
+        }
+        return rank;
+    }
+
+    private record Ranked(long filmId, int likes) {
+    }
+
+    // жанр и год вместе: фильтр по обоим полям читает готовый срез, а не перебирает жанр или год целиком
+    private record GenreYear(long genreId, int year) {
+    }
+
+    private record FilmRank(int likes, Integer year, Set<Long> genres) {
+    }
+}
@@ -0,0 +1,229 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.util.AfterCommit;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Триграммный инвертированный индекс по названиям фильмов и именам режиссеров.
+ * Кандидаты находятся пересечением списков триграмм запроса, затем проверяются на вхождение подстроки,
+ * так что результат совпадает с LOWER(name) LIKE LOWER('%query%').
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FilmSearchIndex {
+    private static final String SELECT_FILMS_QUERY = "SELECT film_id, name FROM films";
+    private static final String SELECT_DIRECTORS_QUERY = "SELECT director_id, name FROM directors";
+    private static final String SELECT_FILMS_DIRECTORS_QUERY = "SELECT film_id, director_id FROM films_directors";
+    private static final int GRAM_SIZE = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, String> titles = new HashMap<>();
+    private final Map<Long, String> directorNames = new HashMap<>();
+    private final Map<Long, Set<Long>> filmsByDirector = new HashMap<>();
+    private final Map<Long, Set<Long>> directorsByFilm = new HashMap<>();
+    private final Map<String, Set<Long>> titleGrams = new HashMap<>();
+    private final Map<String, Set<Long>> directorGrams = new HashMap<>();
+
+    @PostConstruct
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            titles.clear();
+            directorNames.clear();
+            filmsByDirector.clear();
+            directorsByFilm.clear();
+            titleGrams.clear();
+            directorGrams.clear();
+            jdbcTemplate.query(SELECT_FILMS_QUERY, rs -> {
+                indexText(titles, titleGrams, rs.getLong("film_id"), rs.getString("name"));
+            });
+            jdbcTemplate.query(SELECT_DIRECTORS_QUERY, rs -> {
+                indexText(directorNames, directorGrams, rs.getLong("director_id"), rs.getString("name"));
+            });
+            jdbcTemplate.query(SELECT_FILMS_DIRECTORS_QUERY, rs -> {
+                link(rs.getLong("film_id"), rs.getLong("director_id"));
+            });
+            log.info("Поисковый индекс построен: фильмов {}, режиссеров {}", titles.size(), directorNames.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Set<Long> search(String query, boolean byTitle, boolean byDirector) {
+        String needle = normalize(query);
+        Set<Long> result = new HashSet<>();
+
+        lock.readLock().lock();
+        try {
+            if (byTitle) {
+                result.addAll(match(titles, titleGrams, needle));
+            }
+            if (byDirector) {
+                for (Long directorId : match(directorNames, directorGrams, needle)) {
+                    result.addAll(filmsByDirector.getOrDefault(directorId, Collections.emptySet()));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    public void putFilm(long filmId, String title, Collection<Long> directorIds) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                removeFilmInternal(filmId);
+                indexText(titles, titleGrams, filmId, title);
+                for (Long directorId : directorIds) {
+                    link(filmId, directorId);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void removeFilm(long filmId) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                removeFilmInternal(filmId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void putDirector(long directorId, String name) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                unindexText(directorNames, directorGrams, directorId);
+                indexText(directorNames, directorGrams, directorId, name);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void removeDirector(long directorId) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                unindexText(directorNames, directorGrams, directorId);
+                Set<Long> filmIds = filmsByDirector.remove(directorId);
+                if (filmIds != null) {
+                    for (Long filmId : filmIds) {
+                        Set<Long> directors = directorsByFilm.get(filmId);
+                        if (directors != null) {
+                            directors.remove(directorId);
+                        }
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    private Set<Long> match(Map<Long, String> texts, Map<String, Set<Long>> grams, String needle) {
+        Set<Long> matched = new HashSet<>();
+        if (needle.length() < GRAM_SIZE) {
+            // короткий запрос не дает ни одной триграммы — проверяем все строки
+            texts.forEach((id, text) -> {
+                if (text.contains(needle)) {
+                    matched.add(id);
+                }
+            });
+            return matched;
+        }
+
+        List<Set<Long>> postings = new ArrayList<>();
+        for (String gram : trigrams(needle)) {
+            Set<Long> posting = grams.get(gram);
+            if (posting == null) {
+                return matched;
+            }
+            postings.add(posting);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+
+        // пересекаем начиная с самого короткого списка
+        for (Long id : postings.getFirst()) {
+            boolean inAll = true;
+            for (int i = 1; i < postings.size() && inAll; i++) {
+                inAll = postings.get(i).contains(id);
+            }
+            if (inAll && texts.get(id).contains(needle)) {
+                matched.add(id);
+            }
+        }
+        return matched;
+    }
+
+    private void removeFilmInternal(long filmId) {
+        unindexText(titles, titleGrams, filmId);
+        Set<Long> directors = directorsByFilm.remove(filmId);
+        if (directors != null) {
+            for (Long directorId : directors) {
+                Set<Long> filmIds = filmsByDirector.get(directorId);
+                if (filmIds != null) {
+                    filmIds.remove(filmId);
+                }
+            }
+        }
+    }
+
+    private void link(long filmId, long directorId) {
+        filmsByDirector.computeIfAbsent(directorId, id -> new HashSet<>()).add(filmId);
+        directorsByFilm.computeIfAbsent(filmId, id -> new HashSet<>()).add(directorId);
+    }
+
+    private static void indexText(Map<Long, String> texts, Map<String, Set<Long>> grams, long id, String text) {
+        String normalized = normalize(text);
+        texts.put(id, normalized);
+        for (String gram : trigrams(normalized)) {
+            grams.computeIfAbsent(gram, g -> new HashSet<>()).add(id);
+        }
+    }
+
+    private static void unindexText(Map<Long, String> texts, Map<String, Set<Long>> grams, long id) {
+        String old = texts.remove(id);
+        if (old == null) {
+            return;
+        }
+        for (String gram : trigrams(old)) {
+            Set<Long> posting = grams.get(gram);
+            if (posting != null) {
+                posting.remove(id);
+                if (posting.isEmpty()) {
+                    grams.remove(gram);
+                }
+            }
+        }
+    }
+
+    private static Set<String> trigrams(String text) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + GRAM_SIZE <= text.length(); i++) {
+            result.add(text.substring(i, i + GRAM_SIZE));
+        }
+        return result;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,15 +1,19 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.LikeOperation;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface FilmStorage {
 
     public Film create(Film film);
 
+    List<Film> createAll(List<Film> films);
+
     public Collection<Film> findAll();
 
     public Film update(Film film);
@@ -31,4 +35,14 @@ public interface FilmStorage {
     List<Film> getFilmsByDirector(Long directorId, String sortBy);
 
     boolean hasLike(Long filmId, Long userId);
+
+    void removeLikesByUser(Long userId);
+
+    List<Film> getRecommendations(long userId);
+
+    Set<Long> findExistingIds(Collection<Long> filmIds);
+
+    boolean exists(long filmId);
+
+    List<Boolean> applyLikes(List<LikeOperation> operations);
 }
\ No newline at end of file
@@ -5,6 +5,8 @@ import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.LikeOperation;
+import ru.yandex.practicum.filmorate.model.event.Operation;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -27,6 +29,12 @@ public class InMemoryFilmStorage implements FilmStorage {
         return film;
     }
 
+    @Override
+    public List<Film> createAll(List<Film> films) {
+        films.forEach(this::create);
+        return films;
+    }
+
     @Override
     public Collection<Film> findAll() {
         return new ArrayList<>(films.values());
@@ -164,4 +172,38 @@ public class InMemoryFilmStorage implements FilmStorage {
         }
         return film.getLikes().contains(userId);
     }
+
+    @Override
+    public void removeLikesByUser(Long userId) {
+        for (Film film : films.values()) {
+            film.getLikes().remove(userId);
+        }
+    }
+
+    @Override
+    public List<Film> getRecommendations(long userId) {
+        return List.of();
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> filmIds) {
+        return filmIds.stream().filter(films::containsKey).collect(Collectors.toSet());
+    }
+
+    @Override
+    public boolean exists(long filmId) {
+        return films.containsKey(filmId);
+    }
+
+    @Override
+    public List<Boolean> applyLikes(List<LikeOperation> operations) {
+        List<Boolean> changed = new ArrayList<>(operations.size());
+        for (LikeOperation operation : operations) {
+            Set<Long> likes = films.get(operation.getFilmId()).getLikes();
+            changed.add(operation.getOp() == Operation.ADD
+                    ? likes.add(operation.getUserId())
+                    : likes.remove(operation.getUserId()));
+        }
+        return changed;
+    }
 }
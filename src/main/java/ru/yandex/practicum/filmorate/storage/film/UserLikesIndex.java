@@ -0,0 +1,199 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.util.AfterCommit;
+import ru.yandex.practicum.filmorate.util.CompressedLongSet;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Разреженная матрица лайков пользователь×фильм в памяти: для каждого пользователя — множество
+ * лайкнутых фильмов, для каждого фильма — множество лайкнувших пользователей, оба в виде сжатых множеств id.
+ * Общие фильмы двух пользователей считаются одним пересечением множеств без обращения к БД.
+ * Изменения применяются после коммита транзакции, как и в FilmPopularityIndex.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserLikesIndex {
+    private static final String SELECT_LIKES_QUERY = "SELECT user_id, film_id FROM likes";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, CompressedLongSet> filmsByUser = new HashMap<>();
+    private final Map<Long, CompressedLongSet> usersByFilm = new HashMap<>();
+
+    @PostConstruct
+    public void rebuild() {
+        Map<Long, CompressedLongSet> loaded = new HashMap<>();
+        Map<Long, CompressedLongSet> loadedByFilm = new HashMap<>();
+        jdbcTemplate.query(SELECT_LIKES_QUERY, rs -> {
+            long userId = rs.getLong("user_id");
+            long filmId = rs.getLong("film_id");
+            loaded.computeIfAbsent(userId, id -> new CompressedLongSet()).add(filmId);
+            loadedByFilm.computeIfAbsent(filmId, id -> new CompressedLongSet()).add(userId);
+        });
+        loaded.values().forEach(CompressedLongSet::runOptimize);
+        loadedByFilm.values().forEach(CompressedLongSet::runOptimize);
+
+        lock.writeLock().lock();
+        try {
+            filmsByUser.clear();
+            filmsByUser.putAll(loaded);
+            usersByFilm.clear();
+            usersByFilm.putAll(loadedByFilm);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Индекс лайков построен для {} пользователей", loaded.size());
+    }
+
+    public Set<Long> getCommonFilmIds(long userId, long friendId) {
+        lock.readLock().lock();
+        try {
+            CompressedLongSet userFilms = filmsByUser.get(userId);
+            CompressedLongSet friendFilms = filmsByUser.get(friendId);
+            if (userFilms == null || friendFilms == null) {
+                return Collections.emptySet();
+            }
+            return userFilms.and(friendFilms);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Set<Long> getFilmIds(long userId) {
+        lock.readLock().lock();
+        try {
+            CompressedLongSet films = filmsByUser.get(userId);
+            return films != null ? films.copy() : Collections.emptySet();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Set<Long> getUserIdsByFilm(long filmId) {
+        lock.readLock().lock();
+        try {
+            CompressedLongSet users = usersByFilm.get(filmId);
+            return users != null ? users.copy() : Collections.emptySet();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Long> getUserIds() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(filmsByUser.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Строка матрицы пользователя и число общих лайков с каждым, кто лайкал те же фильмы.
+     * Обходятся только столбцы лайкнутых пользователем фильмов, поэтому стоимость пропорциональна
+     * числу совместных лайков, а не квадрату числа пользователей.
+     */
+    public Overlaps countOverlaps(long userId) {
+        lock.readLock().lock();
+        try {
+            CompressedLongSet films = filmsByUser.get(userId);
+            if (films == null) {
+                return new Overlaps(0, Collections.emptyMap(), Collections.emptyMap());
+            }
+            Map<Long, Integer> common = new HashMap<>();
+            for (Long filmId : films) {
+                for (Long otherId : usersByFilm.get(filmId)) {
+                    if (otherId != userId) {
+                        common.merge(otherId, 1, Integer::sum);
+                    }
+                }
+            }
+            Map<Long, Integer> likeCounts = new HashMap<>(common.size());
+            for (Long otherId : common.keySet()) {
+                likeCounts.put(otherId, filmsByUser.get(otherId).size());
+            }
+            return new Overlaps(films.size(), common, likeCounts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void addLike(long filmId, long userId) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                filmsByUser.computeIfAbsent(userId, id -> new CompressedLongSet()).add(filmId);
+                usersByFilm.computeIfAbsent(filmId, id -> new CompressedLongSet()).add(userId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void removeLike(long filmId, long userId) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                removeFromRow(filmsByUser, userId, filmId);
+                removeFromRow(usersByFilm, filmId, userId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void removeUser(long userId) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                CompressedLongSet films = filmsByUser.remove(userId);
+                if (films != null) {
+                    for (Long filmId : films) {
+                        removeFromRow(usersByFilm, filmId, userId);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void removeFilm(long filmId) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                CompressedLongSet users = usersByFilm.remove(filmId);
+                if (users != null) {
+                    for (Long userId : users) {
+                        removeFromRow(filmsByUser, userId, filmId);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    private static void removeFromRow(Map<Long, CompressedLongSet> rows, long rowId, long value) {
+        CompressedLongSet row = rows.get(rowId);
+        if (row != null && row.remove(value) && row.isEmpty()) {
+            rows.remove(rowId);
+        }
+    }
+
+    /**
+     * Число лайков пользователя, число общих лайков с каждым соседом и общее число лайков соседа.
+     */
+    public record Overlaps(int likeCount, Map<Long, Integer> common, Map<Long, Integer> likeCounts) {
+    }
+}
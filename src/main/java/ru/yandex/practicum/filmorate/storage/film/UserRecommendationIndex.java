@@ -0,0 +1,306 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.util.AfterCommit;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Предрасчитанные соседи для рекомендаций: для каждого пользователя хранятся k наиболее похожих
+ * пользователей. Похожесть — число общих лайков, при равенстве — коэффициент Жаккара, затем меньший id.
+ * Полный пересчет идет по матрице лайков из UserLikesIndex параллельно в ForkJoinPool по расписанию.
+ * <p>
+ * Между пересчетами строки поддерживаются инкрементально. Лайк или его снятие меняет похожесть лайкнувшего
+ * только с теми, с кем у него есть общие лайки, и с теми, в чьих строках он уже стоит. Для них по его строке
+ * матрицы берется точное новое значение и вписывается в их строки без пересчета, а его собственная строка
+ * пересчитывается при следующем запросе. Если сосед опустился в конец полной строки и заменить его может
+ * кто-то вне строки, строка тоже пересчитывается при следующем запросе. Поэтому ответ всегда совпадает
+ * с расчетом по текущей матрице, а плановый пересчет только сбрасывает накопленные отметки.
+ */
+@Slf4j
+@Component
+public class UserRecommendationIndex {
+    // ниже этого числа пользователей задача считается в текущем потоке
+    private static final int FORK_THRESHOLD = 256;
+    private static final Comparator<Candidate> BEST_FIRST = Comparator.comparingInt(Candidate::common).reversed()
+            .thenComparing(Comparator.comparingDouble(Candidate::jaccard).reversed())
+            .thenComparingLong(Candidate::userId);
+
+    private final UserLikesIndex userLikesIndex;
+    private final int neighborCount;
+
+    private final ConcurrentMap<Long, Neighbors> neighborsByUser = new ConcurrentHashMap<>();
+    // обратный индекс: id соседа -> пользователи, в чьих строках он стоит
+    private final ConcurrentMap<Long, Set<Long>> ownersByNeighbor = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Long> staleSince = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    public UserRecommendationIndex(UserLikesIndex userLikesIndex,
+                                   @Value("${filmorate.recommendations.neighbors:10}") int neighborCount) {
+        this.userLikesIndex = userLikesIndex;
+        this.neighborCount = neighborCount;
+    }
+
+    @PostConstruct
+    @Scheduled(initialDelayString = "${filmorate.recommendations.rebuild-interval-ms:600000}",
+            fixedDelayString = "${filmorate.recommendations.rebuild-interval-ms:600000}")
+    public void rebuild() {
+        long started = System.currentTimeMillis();
+        long rebuiltAt = version.get();
+        List<Long> userIds = userLikesIndex.getUserIds();
+        ForkJoinPool.commonPool().invoke(new RebuildTask(userIds, 0, userIds.size()));
+        Set<Long> known = new HashSet<>(userIds);
+        for (Long userId : neighborsByUser.keySet()) {
+            if (!known.contains(userId)) {
+                removeRow(userId);
+            }
+        }
+        // отметки, сделанные до начала пересчета, уже учтены
+        staleSince.values().removeIf(changedAt -> changedAt <= rebuiltAt);
+        log.info("Соседи для рекомендаций пересчитаны для {} пользователей за {} мс",
+                userIds.size(), System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Фильмы, которые лайкнул самый похожий пользователь и не лайкнул данный, по возрастанию id.
+     */
+    public List<Long> getRecommendedFilmIds(long userId) {
+        Candidate[] neighbors = getNeighbors(userId).candidates();
+        if (neighbors.length == 0) {
+            return Collections.emptyList();
+        }
+        Set<Long> liked = userLikesIndex.getFilmIds(userId);
+        List<Long> recommended = new ArrayList<>();
+        for (Long filmId : userLikesIndex.getFilmIds(neighbors[0].userId())) {
+            if (!liked.contains(filmId)) {
+                recommended.add(filmId);
+            }
+        }
+        return recommended;
+    }
+
+    // Применяется после коммита, когда UserLikesIndex уже изменен
+    public void onLikeChanged(long userId) {
+        onLikesChanged(List.of(userId));
+    }
+
+    /**
+     * Лайки пользователей изменились: лайк, снятие лайка, удаление фильма, который они лайкали.
+     */
+    public void onLikesChanged(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        AfterCommit.run(() -> userIds.forEach(this::applyChange));
+    }
+
+    // Вызывается после UserLikesIndex.removeUser, чтобы после коммита матрица уже была без пользователя
+    public void onUserRemoved(long userId) {
+        AfterCommit.run(() -> {
+            applyChange(userId);
+            removeRow(userId);
+        });
+    }
+
+    private void applyChange(long userId) {
+        // версия берется до чтения матрицы, как в computeNeighbors
+        long changedAt = version.incrementAndGet();
+        UserLikesIndex.Overlaps overlaps = userLikesIndex.countOverlaps(userId);
+        markStale(userId, changedAt);
+
+        Set<Long> owners = new HashSet<>(overlaps.common().keySet());
+        owners.addAll(ownersByNeighbor.getOrDefault(userId, Collections.emptySet()));
+        owners.remove(userId);
+        for (Long ownerId : owners) {
+            int common = overlaps.common().getOrDefault(ownerId, 0);
+            Candidate updated = new Candidate(userId, common,
+                    common > 0 ? jaccard(overlaps.likeCount(), overlaps.likeCounts().get(ownerId), common) : 0);
+            neighborsByUser.compute(ownerId, (id, row) -> {
+                Neighbors patched = row == null || isStale(id, row) ? null : patch(row, updated, changedAt);
+                if (patched == null) {
+                    staleSince.merge(id, changedAt, Math::max);
+                    return row;
+                }
+                relink(id, row, patched);
+                return patched;
+            });
+        }
+    }
+
+    /**
+     * Строка с новым значением похожести одного соседа или null, если без пересчета строку не получить.
+     * Вне строки остаются только кандидаты хуже ее последнего соседа, а в неполной строке — все,
+     * у кого есть общие лайки.
+     */
+    private Neighbors patch(Neighbors row, Candidate updated, long changedAt) {
+        Candidate[] current = row.candidates();
+        boolean full = current.length >= neighborCount;
+        int last = current.length - 1;
+        int index = indexOf(current, updated.userId());
+        List<Candidate> result = new ArrayList<>(Arrays.asList(current));
+        if (index >= 0) {
+            boolean worse = BEST_FIRST.compare(updated, current[index]) > 0;
+            if (full && worse && (index == last || BEST_FIRST.compare(updated, current[last]) > 0)) {
+                // сосед опустился ниже прежнего последнего: его место может занять кто-то вне строки
+                return null;
+            }
+            result.remove(index);
+            if (updated.common() > 0) {
+                result.add(updated);
+            }
+        } else if (updated.common() > 0) {
+            if (!full) {
+                result.add(updated);
+            } else if (BEST_FIRST.compare(updated, current[last]) < 0) {
+                result.remove(last);
+                result.add(updated);
+            }
+        }
+        result.sort(BEST_FIRST);
+        return new Neighbors(result.toArray(Candidate[]::new), Math.max(row.version(), changedAt));
+    }
+
+    private Neighbors getNeighbors(long userId) {
+        Neighbors neighbors = neighborsByUser.get(userId);
+        if (neighbors == null || isStale(userId, neighbors)) {
+            neighbors = computeNeighbors(userId);
+            install(userId, neighbors);
+        }
+        return neighbors;
+    }
+
+    private boolean isStale(long userId, Neighbors neighbors) {
+        return staleSince.getOrDefault(userId, Long.MIN_VALUE) > neighbors.version();
+    }
+
+    private void markStale(long userId, long changedAt) {
+        neighborsByUser.compute(userId, (id, row) -> {
+            staleSince.merge(id, changedAt, Math::max);
+            return row;
+        });
+    }
+
+    // Строка, посчитанная по матрице, не заменяет строку, в которую уже вписаны более поздние изменения
+    private void install(long userId, Neighbors computed) {
+        neighborsByUser.compute(userId, (id, row) -> {
+            if (row != null && row.version() > computed.version()) {
+                return row;
+            }
+            long current = version.get();
+            if (current > computed.version()) {
+                // изменение во время расчета могло пройти мимо строки, которой еще не было в индексе
+                staleSince.merge(id, current, Math::max);
+            }
+            relink(id, row, computed);
+            return computed;
+        });
+    }
+
+    private void removeRow(long userId) {
+        neighborsByUser.compute(userId, (id, row) -> {
+            relink(id, row, null);
+            staleSince.remove(id);
+            return null;
+        });
+    }
+
+    private void relink(long ownerId, Neighbors before, Neighbors after) {
+        Set<Long> was = ids(before);
+        Set<Long> now = ids(after);
+        for (Long neighborId : was) {
+            if (!now.contains(neighborId)) {
+                ownersByNeighbor.computeIfPresent(neighborId, (id, owners) -> {
+                    owners.remove(ownerId);
+                    return owners.isEmpty() ? null : owners;
+                });
+            }
+        }
+        for (Long neighborId : now) {
+            if (!was.contains(neighborId)) {
+                ownersByNeighbor.compute(neighborId, (id, owners) -> {
+                    Set<Long> result = owners != null ? owners : ConcurrentHashMap.newKeySet();
+                    result.add(ownerId);
+                    return result;
+                });
+            }
+        }
+    }
+
+    private Neighbors computeNeighbors(long userId) {
+        // версия читается до матрицы: изменение, пришедшее во время расчета, пометит строку устаревшей
+        long computedAt = version.get();
+        UserLikesIndex.Overlaps overlaps = userLikesIndex.countOverlaps(userId);
+        Candidate[] top = overlaps.common().entrySet().stream()
+                .map(e -> new Candidate(e.getKey(), e.getValue(),
+                        jaccard(overlaps.likeCount(), overlaps.likeCounts().get(e.getKey()), e.getValue())))
+                .sorted(BEST_FIRST)
+                .limit(neighborCount)
+                .toArray(Candidate[]::new);
+        return new Neighbors(top, computedAt);
+    }
+
+    private static double jaccard(int likeCount, int otherLikeCount, int common) {
+        int union = likeCount + otherLikeCount - common;
+        return union > 0 ? (double) common / union : 0;
+    }
+
+    private static int indexOf(Candidate[] candidates, long userId) {
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i].userId() == userId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Set<Long> ids(Neighbors neighbors) {
+        if (neighbors == null) {
+            return Collections.emptySet();
+        }
+        Set<Long> ids = new HashSet<>();
+        for (Candidate candidate : neighbors.candidates()) {
+            ids.add(candidate.userId());
+        }
+        return ids;
+    }
+
+    private record Candidate(long userId, int common, double jaccard) {
+    }
+
+    private record Neighbors(Candidate[] candidates, long version) {
+    }
+
+    private class RebuildTask extends RecursiveAction {
+        private final List<Long> userIds;
+        private final int from;
+        private final int to;
+
+        RebuildTask(List<Long> userIds, int from, int to) {
+            this.userIds = userIds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= FORK_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    long userId = userIds.get(i);
+                    install(userId, computeNeighbors(userId));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RebuildTask(userIds, from, middle), new RebuildTask(userIds, middle, to));
+        }
+    }
+}
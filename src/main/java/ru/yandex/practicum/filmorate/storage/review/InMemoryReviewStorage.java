@@ -94,6 +94,20 @@ public class InMemoryReviewStorage implements ReviewStorage {
         }
     }
 
+    @Override
+    public void removeReactionsByUser(Long userId) {
+        reviewLikes.forEach((reviewId, users) -> {
+            if (users.remove(userId)) {
+                updateUseful(reviewId, -1);
+            }
+        });
+        reviewDislikes.forEach((reviewId, users) -> {
+            if (users.remove(userId)) {
+                updateUseful(reviewId, 1);
+            }
+        });
+    }
+
     @Override
     public boolean existsById(Long id) {
         return reviews.containsKey(id);
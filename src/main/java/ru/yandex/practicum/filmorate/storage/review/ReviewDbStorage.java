@@ -5,8 +5,10 @@ import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -22,34 +24,45 @@ public class ReviewDbStorage implements ReviewStorage {
 
     private static final String UPDATE_QUERY = "UPDATE reviews SET content = ?, is_positive = ? WHERE review_id = ?";
     private static final String DELETE_QUERY = "DELETE FROM reviews WHERE review_id = ?";
-    private static final String SELECT_QUERY = "SELECT r.*, " +
-            "COALESCE(l.likes_count, 0) - COALESCE(d.dislikes_count, 0) as useful " +
-            "FROM reviews r " +
-            "LEFT JOIN (SELECT review_id, COUNT(*) as likes_count FROM review_likes GROUP BY review_id) l ON r.review_id = l.review_id " +
-            "LEFT JOIN (SELECT review_id, COUNT(*) as dislikes_count FROM review_dislikes GROUP BY review_id) d ON r.review_id = d.review_id " +
-            "WHERE r.review_id = ?";
-    private static final String SELECT_QUERY_JOIN_LIMIT = "SELECT r.*, " +
-            "COALESCE(l.likes_count, 0) - COALESCE(d.dislikes_count, 0) as useful " +
-            "FROM reviews r " +
-            "LEFT JOIN (SELECT review_id, COUNT(*) as likes_count FROM review_likes GROUP BY review_id) l ON r.review_id = l.review_id " +
-            "LEFT JOIN (SELECT review_id, COUNT(*) as dislikes_count FROM review_dislikes GROUP BY review_id) d ON r.review_id = d.review_id " +
-            "WHERE (? IS NULL OR r.film_id = ?) " +
-            "ORDER BY useful DESC " +
+    // useful хранится в reviews и меняется вместе со строками review_reactions
+    private static final String SELECT_QUERY = "SELECT review_id, content, is_positive, user_id, film_id, useful " +
+            "FROM reviews WHERE review_id = ?";
+    // отдельные запросы для фильма и для всех отзывов, чтобы каждый читался по своему индексу
+    private static final String SELECT_QUERY_BY_FILM_LIMIT = "SELECT review_id, content, is_positive, user_id, film_id, useful " +
+            "FROM reviews WHERE film_id = ? " +
+            "ORDER BY useful DESC, review_id " +
             "LIMIT ?";
-    private static final String SELECT_QUERY_REVIEW_LIKES = "SELECT COUNT(*) FROM review_likes WHERE review_id = ? AND user_id = ?";
-    private static final String SELECT_QUERY_REVIEW_DISLIKES = "SELECT COUNT(*) FROM review_dislikes WHERE review_id = ? AND user_id = ?";
-    private static final String INSERT_QUERY_REVIEW_LIKES = "INSERT INTO review_likes (review_id, user_id) VALUES (?, ?)";
-    private static final String INSERT_QUERY_REVIEW_DISLIKES = "INSERT INTO review_dislikes (review_id, user_id) VALUES (?, ?)";
-    private static final String DELETE_QUERY_REVIEW_LIKES = "DELETE FROM review_likes WHERE review_id = ? AND user_id = ?";
-    private static final String DELETE_QUERY_REVIEW_DISLIKES = "DELETE FROM review_dislikes WHERE review_id = ? AND user_id = ?";
+    private static final String SELECT_QUERY_LIMIT = "SELECT review_id, content, is_positive, user_id, film_id, useful " +
+            "FROM reviews " +
+            "ORDER BY useful DESC, review_id " +
+            "LIMIT ?";
+    private static final int LIKE = 1;
+    private static final int DISLIKE = -1;
+    // Оценка ставится и снимается одним оператором; OLD TABLE возвращает прежнее значение строки,
+    // по нему считается изменение useful. Строка оценки блокируется оператором, поэтому одновременные
+    // клики одного пользователя не дают двойного счета
+    private static final String MERGE_REACTION_QUERY = "SELECT reaction FROM OLD TABLE (" +
+            "MERGE INTO review_reactions (review_id, user_id, reaction) KEY (review_id, user_id) VALUES (?, ?, ?))";
+    private static final String DELETE_REACTION_QUERY = "SELECT reaction FROM OLD TABLE (" +
+            "DELETE FROM review_reactions WHERE review_id = ? AND user_id = ? AND reaction = ?)";
+    // FINAL TABLE возвращает film_id измененного отзыва для версии отзывов фильма без отдельного чтения
+    private static final String UPDATE_USEFUL_QUERY = "SELECT film_id FROM FINAL TABLE (" +
+            "UPDATE reviews SET useful = useful + ? WHERE review_id = ?)";
+    private static final String REVERT_USEFUL_BY_USER_QUERY = "UPDATE reviews r SET useful = useful - " +
+            "(SELECT rr.reaction FROM review_reactions rr WHERE rr.review_id = r.review_id AND rr.user_id = ?) " +
+            "WHERE r.review_id IN (SELECT review_id FROM review_reactions WHERE user_id = ?)";
+    private static final String DELETE_REACTIONS_BY_USER_QUERY = "DELETE FROM review_reactions WHERE user_id = ?";
     private static final String SELECT_QUERY_REVIEWS = "SELECT COUNT(*) FROM reviews WHERE review_id = ?";
+    private static final String SELECT_FILM_ID_QUERY = "SELECT film_id FROM reviews WHERE review_id = ?";
     private final JdbcTemplate jdbcTemplate;
+    private final EntityVersions versions;
 
     @Override
     public Review create(Review review) {
         // Создаем SimpleJdbcInsert для таблицы reviews
         SimpleJdbcInsert simpleJdbcInsert = new SimpleJdbcInsert(jdbcTemplate)
                 .withTableName("reviews")
+                .usingColumns("content", "is_positive", "user_id", "film_id")
                 .usingGeneratedKeyColumns("review_id");
 
         // Подготавливаем параметры для вставки
@@ -63,6 +76,7 @@ public class ReviewDbStorage implements ReviewStorage {
         Long reviewId = simpleJdbcInsert.executeAndReturnKey(parameters).longValue();
         review.setReviewId(reviewId);
         review.setUseful(0);
+        versions.touchReviews(review.getFilmId());
 
         return review;
     }
@@ -81,12 +95,16 @@ public class ReviewDbStorage implements ReviewStorage {
             throw new NotFoundException("Отзыв с ID " + review.getReviewId() + " не найден.");
         }
 
-        return findById(review.getReviewId()).orElseThrow();
+        Review updated = findById(review.getReviewId()).orElseThrow();
+        versions.touchReviews(updated.getFilmId());
+        return updated;
     }
 
     @Override
     public void delete(Long id) {
+        Optional<Long> filmId = findFilmId(id);
         jdbcTemplate.update(DELETE_QUERY, id);
+        filmId.ifPresent(versions::touchReviews);
     }
 
     @Override
@@ -97,47 +115,42 @@ public class ReviewDbStorage implements ReviewStorage {
 
     @Override
     public List<Review> findByFilmId(Long filmId, int count) {
-        return jdbcTemplate.query(SELECT_QUERY_JOIN_LIMIT, this::mapRowToReview, filmId, filmId, count);
+        if (filmId == null) {
+            return jdbcTemplate.query(SELECT_QUERY_LIMIT, this::mapRowToReview, count);
+        }
+        return jdbcTemplate.query(SELECT_QUERY_BY_FILM_LIMIT, this::mapRowToReview, filmId, count);
     }
 
     @Override
+    @Transactional
     public void addLike(Long reviewId, Long userId) {
-        // Сначала удаляем возможный дизлайк
-        removeDislike(reviewId, userId);
-
-        // Проверяем, не поставил ли уже пользователь лайк
-        Integer count = jdbcTemplate.queryForObject(SELECT_QUERY_REVIEW_LIKES, Integer.class, reviewId, userId);
-
-        if (count == 0) {
-            jdbcTemplate.update(INSERT_QUERY_REVIEW_LIKES, reviewId, userId);
-        }
+        react(reviewId, userId, LIKE);
     }
 
     @Override
+    @Transactional
     public void addDislike(Long reviewId, Long userId) {
-        // Сначала удаляем возможный лайк
-        removeLike(reviewId, userId);
-
-        // Проверяем, не поставил ли уже пользователь дизлайк
-        Integer count = jdbcTemplate.queryForObject(SELECT_QUERY_REVIEW_DISLIKES, Integer.class, reviewId, userId);
-
-        if (count == 0) {
-            jdbcTemplate.update(INSERT_QUERY_REVIEW_DISLIKES, reviewId, userId);
-        }
+        react(reviewId, userId, DISLIKE);
     }
 
     @Override
+    @Transactional
     public void removeLike(Long reviewId, Long userId) {
-        int rowsAffected = jdbcTemplate.update(DELETE_QUERY_REVIEW_LIKES, reviewId, userId);
-        if (rowsAffected == 0) {
-            //throw new NotFoundException("Лайк для отзыва не найден");
-        }
+        unreact(reviewId, userId, LIKE);
     }
 
     @Override
+    @Transactional
     public void removeDislike(Long reviewId, Long userId) {
+        unreact(reviewId, userId, DISLIKE);
+    }
 
-        jdbcTemplate.update(DELETE_QUERY_REVIEW_DISLIKES, reviewId, userId);
+    @Override
+    public void removeReactionsByUser(Long userId) {
+        // счетчики правятся до удаления строк, которые иначе снял бы каскад при удалении пользователя
+        if (jdbcTemplate.update(REVERT_USEFUL_BY_USER_QUERY, userId, userId) > 0) {
+            jdbcTemplate.update(DELETE_REACTIONS_BY_USER_QUERY, userId);
+        }
     }
 
     @Override
@@ -146,6 +159,34 @@ public class ReviewDbStorage implements ReviewStorage {
         return count != null && count > 0;
     }
 
+    private Optional<Long> findFilmId(Long reviewId) {
+        return jdbcTemplate.queryForList(SELECT_FILM_ID_QUERY, Long.class, reviewId).stream().findFirst();
+    }
+
+    // Ставит оценку или заменяет оценку противоположного знака
+    private void react(Long reviewId, Long userId, int reaction) {
+        List<Integer> previous = jdbcTemplate.queryForList(MERGE_REACTION_QUERY, Integer.class, reviewId, userId, reaction);
+        changeUseful(reviewId, reaction - (previous.isEmpty() ? 0 : previous.get(0)));
+    }
+
+    // Снимает оценку, только если она того же знака
+    private void unreact(Long reviewId, Long userId, int reaction) {
+        List<Integer> previous = jdbcTemplate.queryForList(DELETE_REACTION_QUERY, Integer.class, reviewId, userId, reaction);
+        if (!previous.isEmpty()) {
+            changeUseful(reviewId, -previous.get(0));
+        }
+    }
+
+    // оценка меняет useful и порядок отзывов фильма
+    private void changeUseful(Long reviewId, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        jdbcTemplate.queryForList(UPDATE_USEFUL_QUERY, Long.class, delta, reviewId).stream()
+                .findFirst()
+                .ifPresent(versions::touchReviews);
+    }
+
     private Review mapRowToReview(ResultSet rs, int rowNum) throws SQLException {
         return Review.builder()
                 .reviewId(rs.getLong("review_id"))
@@ -26,5 +26,7 @@ public interface ReviewStorage {
 
     void removeDislike(Long reviewId, Long userId);
 
+    void removeReactionsByUser(Long userId);
+
     boolean existsById(Long id);
 }
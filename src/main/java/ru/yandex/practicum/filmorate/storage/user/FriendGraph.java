@@ -0,0 +1,224 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Направленный граф дружбы в памяти в формате CSR: отсортированные id вершин, смещения строк
+ * и общий массив отсортированных списков друзей. Измененные строки копируются в небольшой буфер
+ * и при накоплении изменений сливаются обратно в CSR. Пересечения считаются слиянием отсортированных массивов.
+ */
+public final class FriendGraph {
+    private static final long[] EMPTY = new long[0];
+    // после стольких измененных строк буфер сливается в основные массивы
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] vertices = EMPTY;
+    private int[] offsets = {0};
+    private long[] targets = EMPTY;
+    private final Map<Long, long[]> changedRows = new HashMap<>();
+    private final Set<Long> removedVertices = new HashSet<>();
+
+    /**
+     * Заменяет граф списком ребер {user_id, friend_id}, отсортированным по возрастанию.
+     */
+    public void load(List<long[]> edges) {
+        int edgeCount = edges.size();
+        long[] newVertices = new long[edgeCount];
+        int[] newOffsets = new int[edgeCount + 1];
+        long[] newTargets = new long[edgeCount];
+        int vertexCount = 0;
+        for (int i = 0; i < edgeCount; i++) {
+            long[] edge = edges.get(i);
+            if (vertexCount == 0 || newVertices[vertexCount - 1] != edge[0]) {
+                newVertices[vertexCount] = edge[0];
+                newOffsets[vertexCount] = i;
+                vertexCount++;
+            }
+            newTargets[i] = edge[1];
+        }
+        newOffsets[vertexCount] = edgeCount;
+
+        lock.writeLock().lock();
+        try {
+            vertices = Arrays.copyOf(newVertices, vertexCount);
+            offsets = Arrays.copyOf(newOffsets, vertexCount + 1);
+            targets = newTargets;
+            changedRows.clear();
+            removedVertices.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long[] getFriends(long userId) {
+        lock.readLock().lock();
+        try {
+            long[] changed = changedRows.get(userId);
+            if (changed != null) {
+                return changed.clone();
+            }
+            int index = Arrays.binarySearch(vertices, userId);
+            if (index < 0) {
+                return EMPTY;
+            }
+            return withoutRemoved(Arrays.copyOfRange(targets, offsets[index], offsets[index + 1]));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isFriend(long userId, long friendId) {
+        lock.readLock().lock();
+        try {
+            if (removedVertices.contains(friendId)) {
+                return false;
+            }
+            long[] changed = changedRows.get(userId);
+            if (changed != null) {
+                return Arrays.binarySearch(changed, friendId) >= 0;
+            }
+            int index = Arrays.binarySearch(vertices, userId);
+            return index >= 0 && Arrays.binarySearch(targets, offsets[index], offsets[index + 1], friendId) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long[] getCommonFriends(long userId, long otherId) {
+        long[] first = getFriends(userId);
+        long[] second = getFriends(otherId);
+        long[] result = new long[Math.min(first.length, second.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                result[count++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    public void addFriend(long userId, long friendId) {
+        lock.writeLock().lock();
+        try {
+            long[] row = mutableRow(userId);
+            int index = Arrays.binarySearch(row, friendId);
+            if (index < 0) {
+                int insertAt = -index - 1;
+                long[] updated = new long[row.length + 1];
+                System.arraycopy(row, 0, updated, 0, insertAt);
+                updated[insertAt] = friendId;
+                System.arraycopy(row, insertAt, updated, insertAt + 1, row.length - insertAt);
+                changedRows.put(userId, updated);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeFriend(long userId, long friendId) {
+        lock.writeLock().lock();
+        try {
+            long[] row = mutableRow(userId);
+            int index = Arrays.binarySearch(row, friendId);
+            if (index >= 0) {
+                long[] updated = new long[row.length - 1];
+                System.arraycopy(row, 0, updated, 0, index);
+                System.arraycopy(row, index + 1, updated, index, row.length - index - 1);
+                changedRows.put(userId, updated);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Входящие ребра удаленного пользователя не ищутся по всему графу: вершина помечается удаленной
+    // и отфильтровывается при чтении до ближайшего слияния буфера
+    public void removeUser(long userId) {
+        lock.writeLock().lock();
+        try {
+            removedVertices.add(userId);
+            changedRows.put(userId, EMPTY);
+            for (Map.Entry<Long, long[]> entry : changedRows.entrySet()) {
+                entry.setValue(withoutRemoved(entry.getValue()));
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private long[] mutableRow(long userId) {
+        long[] changed = changedRows.get(userId);
+        if (changed != null) {
+            return changed;
+        }
+        int index = Arrays.binarySearch(vertices, userId);
+        return index < 0 ? EMPTY : withoutRemoved(Arrays.copyOfRange(targets, offsets[index], offsets[index + 1]));
+    }
+
+    private long[] withoutRemoved(long[] row) {
+        if (removedVertices.isEmpty()) {
+            return row;
+        }
+        long[] result = new long[row.length];
+        int count = 0;
+        for (long friendId : row) {
+            if (!removedVertices.contains(friendId)) {
+                result[count++] = friendId;
+            }
+        }
+        return count == row.length ? row : Arrays.copyOf(result, count);
+    }
+
+    private void compactIfNeeded() {
+        if (changedRows.size() + removedVertices.size() < COMPACT_THRESHOLD) {
+            return;
+        }
+        TreeMap<Long, long[]> rows = new TreeMap<>();
+        for (int i = 0; i < vertices.length; i++) {
+            rows.put(vertices[i], Arrays.copyOfRange(targets, offsets[i], offsets[i + 1]));
+        }
+        rows.putAll(changedRows);
+
+        int edgeCount = 0;
+        for (Map.Entry<Long, long[]> entry : rows.entrySet()) {
+            long[] row = withoutRemoved(entry.getValue());
+            entry.setValue(row);
+            edgeCount += row.length;
+        }
+        rows.values().removeIf(row -> row.length == 0);
+
+        long[] newVertices = new long[rows.size()];
+        int[] newOffsets = new int[rows.size() + 1];
+        long[] newTargets = new long[edgeCount];
+        int vertex = 0;
+        int position = 0;
+        for (Map.Entry<Long, long[]> entry : rows.entrySet()) {
+            newVertices[vertex] = entry.getKey();
+            newOffsets[vertex] = position;
+            System.arraycopy(entry.getValue(), 0, newTargets, position, entry.getValue().length);
+            position += entry.getValue().length;
+            vertex++;
+        }
+        newOffsets[vertex] = position;
+
+        vertices = newVertices;
+        offsets = newOffsets;
+        targets = newTargets;
+        changedRows.clear();
+        removedVertices.clear();
+    }
+}
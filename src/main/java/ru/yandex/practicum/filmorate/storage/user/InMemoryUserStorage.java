@@ -86,6 +86,15 @@ public class InMemoryUserStorage implements UserStorage {
 
     }
 
+    @Override
+    public long[] getFriendIds(Long userId) {
+        User user = users.get(userId);
+        if (user == null) {
+            return new long[0];
+        }
+        return user.getFriends().stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
     @Override
     public List<User> getFriends(Long userId) {
         return null;
@@ -109,4 +118,32 @@ public class InMemoryUserStorage implements UserStorage {
         }
         return user.getFriends().contains(friendId);
     }
+
+    @Override
+    public List<User> createAll(List<User> users) {
+        users.forEach(this::create);
+        return users;
+    }
+
+    @Override
+    public Set<String> findExistingEmails(Collection<String> emails) {
+        Set<String> existing = new HashSet<>();
+        for (User user : users.values()) {
+            if (emails.contains(user.getEmail())) {
+                existing.add(user.getEmail());
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> userIds) {
+        Set<Long> existing = new HashSet<>();
+        for (Long userId : userIds) {
+            if (users.containsKey(userId)) {
+                existing.add(userId);
+            }
+        }
+        return existing;
+    }
 }
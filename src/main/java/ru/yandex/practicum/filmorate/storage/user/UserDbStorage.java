@@ -1,5 +1,6 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,18 +10,22 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.DuplicatedDataException;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.mapper.UserMapper;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
+import ru.yandex.practicum.filmorate.storage.IdRangeAllocator;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
+import ru.yandex.practicum.filmorate.util.AfterCommit;
 
 import java.sql.*;
 import java.sql.Date;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Repository("userDbStorage")
@@ -30,25 +35,42 @@ public class UserDbStorage implements UserStorage {
     private static final String FIND_ALL_QUERY = "SELECT * FROM users";
     private static final String FIND_BY_EMAIL_QUERY = "SELECT COUNT(*) FROM users WHERE email = ?";
     private static final String INSERT_QUERY = "INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_WITH_ID_QUERY = "INSERT INTO users (user_id, email, login, name, birthday) VALUES (?, ?, ?, ?, ?)";
+    private static final String FIND_EXISTING_EMAILS_QUERY = "SELECT email FROM users WHERE email IN (%s)";
     private static final String UPDATE_QUERY = "UPDATE users SET email = ?, login = ?, name = ?, birthday = ? WHERE user_id = ?";
     private static final String FIND_BY_USER_ID_QUERY = "SELECT * FROM users WHERE USER_ID = ?";
-    private static final String FIND_FRIEND_BY_USER_ID_QUERY = "SELECT friend_id FROM friends WHERE user_id = ?";
+    private static final String FIND_FRIEND_EDGES_QUERY = "SELECT user_id, friend_id FROM friends ORDER BY user_id, friend_id";
     private static final String INSERT_FRIEND_QUERY = "INSERT INTO friends (user_id, friend_id) VALUES (?, ?)";
     private static final String DELETE_FRIEND_QUERY = "DELETE FROM friends WHERE user_id = ? AND friend_id = ?";
-    private static final String FIND_FRIEND_QUERY = "SELECT u.* FROM users u JOIN friends f ON u.USER_ID = f.friend_id " + "WHERE f.user_id = ?";
-    private static final String FIND_COMMON_FRIEND_QUERY = "SELECT u.* FROM users u " + "JOIN friends f1 ON  f1.friend_id = u.user_id " + "JOIN friends f2 ON f2.friend_id = u.user_id " + "WHERE f1.user_id = ? AND " + "f2.user_id = ?";
-    private static final String FIND_LIKES_QUERY = "SELECT film_id FROM likes WHERE user_id = ? " + "EXCEPT " + "SELECT film_id FROM likes WHERE user_id = ?";
-    private static final String FIND_MOST_QUERY = "SELECT l2.user_id " + "FROM likes AS l1 " + "JOIN likes AS l2 ON l1.film_id = l2.film_id AND l1.user_id != l2.user_id " + "WHERE l1.user_id = ? " + "GROUP BY l2.user_id " + "ORDER BY COUNT(l2.film_id) DESC " + "LIMIT 1";
+    private static final String FIND_BY_USER_IDS_QUERY = "SELECT * FROM users WHERE user_id IN (%s)";
+    private static final String FIND_EXISTING_IDS_QUERY = "SELECT user_id FROM users WHERE user_id IN (%s)";
     private static final String FIND_COUNT_LIKES = "SELECT COUNT(*) FROM likes WHERE user_id = ?";
-    private static final String FIND_COUNT_FRIENDS = "SELECT COUNT(*) FROM friends WHERE user_id = ? AND friend_id = ?";
     private static final String DELETE_USERS_BY_ID = "DELETE FROM users WHERE user_id = ?";
+    // Ограничение на размер списка IN (...), как и в FilmDbStorage
+    private static final int HYDRATION_CHUNK_SIZE = 1000;
     private final JdbcTemplate jdbcTemplate;
     private FilmStorage filmStorage;
+    private final ReviewStorage reviewStorage;
+    private final EntityVersions versions;
+    // граф дружбы в памяти; из БД читаются только строки пользователей для ответа
+    private final FriendGraph friendGraph = new FriendGraph();
+    private final IdRangeAllocator idAllocator = new IdRangeAllocator("users", "user_id");
 
     @Autowired
-    public UserDbStorage(@Qualifier("filmDbStorage") FilmStorage filmStorage, JdbcTemplate jdbcTemplate) {
+    public UserDbStorage(@Qualifier("filmDbStorage") FilmStorage filmStorage, ReviewStorage reviewStorage,
+                         JdbcTemplate jdbcTemplate, EntityVersions versions) {
         this.filmStorage = filmStorage;
+        this.reviewStorage = reviewStorage;
         this.jdbcTemplate = jdbcTemplate;
+        this.versions = versions;
+    }
+
+    @PostConstruct
+    public void loadFriendGraph() {
+        List<long[]> edges = jdbcTemplate.query(FIND_FRIEND_EDGES_QUERY,
+                (rs, rowNum) -> new long[]{rs.getLong("user_id"), rs.getLong("friend_id")});
+        friendGraph.load(edges);
+        log.info("Граф дружбы загружен: {} связей", edges.size());
     }
 
     @Override
@@ -81,15 +103,52 @@ public class UserDbStorage implements UserStorage {
             return ps;
         }, keyHolder);
         user.setId(keyHolder.getKey().longValue());
+        versions.touchUser(user.getId());
         return user;
     }
 
+    /**
+     * Пакетная вставка проверенных пользователей с id из зарезервированного диапазона. Уникальность email
+     * проверяется заранее через findExistingEmails, здесь ее гарантирует только ограничение UNIQUE.
+     */
+    @Override
+    @Transactional
+    public List<User> createAll(List<User> users) {
+        long firstId = idAllocator.reserve(jdbcTemplate.getDataSource(), users.size());
+        for (int i = 0; i < users.size(); i++) {
+            users.get(i).setId(firstId + i);
+        }
+        jdbcTemplate.batchUpdate(INSERT_WITH_ID_QUERY, users, users.size(), (ps, user) -> {
+            ps.setLong(1, user.getId());
+            ps.setString(2, user.getEmail());
+            ps.setString(3, user.getLogin());
+            ps.setString(4, user.getName());
+            ps.setDate(5, Date.valueOf(user.getBirthday()));
+        });
+        versions.touchUsers(users.stream().map(User::getId).toList());
+        log.info("Добавлено пользователей пачкой: {}, id с {}", users.size(), firstId);
+        return users;
+    }
+
+    @Override
+    public Set<String> findExistingEmails(Collection<String> emails) {
+        Set<String> existing = new HashSet<>();
+        List<String> list = new ArrayList<>(new HashSet<>(emails));
+        for (int from = 0; from < list.size(); from += HYDRATION_CHUNK_SIZE) {
+            List<String> chunk = list.subList(from, Math.min(from + HYDRATION_CHUNK_SIZE, list.size()));
+            String inSql = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            existing.addAll(jdbcTemplate.queryForList(String.format(FIND_EXISTING_EMAILS_QUERY, inSql), String.class, chunk.toArray()));
+        }
+        return existing;
+    }
+
     @Override
     public User update(User newUser) {
         int rows = jdbcTemplate.update(UPDATE_QUERY, newUser.getEmail(), newUser.getLogin(), newUser.getName(), newUser.getBirthday() != null ? Date.valueOf(newUser.getBirthday()) : null, newUser.getId());
         if (rows == 0) {
             throw new NotFoundException("Пользователь с id=" + newUser.getId() + " не найден");
         }
+        versions.touchUser(newUser.getId());
 
         return newUser;
     }
@@ -111,27 +170,63 @@ public class UserDbStorage implements UserStorage {
     }
 
     private Set<Long> findFriendList(Long id) {
-        return new HashSet<>(jdbcTemplate.query(FIND_FRIEND_BY_USER_ID_QUERY, (rs, rowNum) -> rs.getLong("friend_id"), id));
+        Set<Long> friends = new HashSet<>();
+        for (long friendId : friendGraph.getFriends(id)) {
+            friends.add(friendId);
+        }
+        return friends;
+    }
+
+    /**
+     * Загружает пользователей по id запросами user_id IN (...) и возвращает их в порядке переданных id.
+     */
+    private List<User> findAllByIdsInOrder(long[] userIds) {
+        Map<Long, User> usersById = new HashMap<>();
+        for (int from = 0; from < userIds.length; from += HYDRATION_CHUNK_SIZE) {
+            int to = Math.min(from + HYDRATION_CHUNK_SIZE, userIds.length);
+            Object[] params = Arrays.stream(userIds, from, to).boxed().toArray();
+            String inSql = String.join(",", Collections.nCopies(params.length, "?"));
+            for (User user : jdbcTemplate.query(String.format(FIND_BY_USER_IDS_QUERY, inSql), new UserMapper(), params)) {
+                usersById.put(user.getId(), user);
+            }
+        }
+        List<User> result = new ArrayList<>(userIds.length);
+        for (long userId : userIds) {
+            User user = usersById.get(userId);
+            if (user != null) {
+                result.add(user);
+            }
+        }
+        return result;
     }
 
     @Override
     public void addFriend(Long userId, Long friendId) {
         jdbcTemplate.update(INSERT_FRIEND_QUERY, userId, friendId);
+        AfterCommit.run(() -> friendGraph.addFriend(userId, friendId));
+        versions.touchUser(userId);
     }
 
     @Override
     public void removeFriend(Long userId, Long friendId) {
         jdbcTemplate.update(DELETE_FRIEND_QUERY, userId, friendId);
+        AfterCommit.run(() -> friendGraph.removeFriend(userId, friendId));
+        versions.touchUser(userId);
+    }
+
+    @Override
+    public long[] getFriendIds(Long userId) {
+        return friendGraph.getFriends(userId);
     }
 
     @Override
     public List<User> getFriends(Long userId) {
-        return jdbcTemplate.query(FIND_FRIEND_QUERY, new UserMapper(), userId);
+        return findAllByIdsInOrder(friendGraph.getFriends(userId));
     }
 
     @Override
     public List<User> getCommonFriends(Long userId, Long otherId) {
-        return jdbcTemplate.query(FIND_COMMON_FRIEND_QUERY, new UserMapper(), userId, otherId);
+        return findAllByIdsInOrder(friendGraph.getCommonFriends(userId, otherId));
     }
 
     public boolean likesExists(Long userId) {
@@ -141,28 +236,38 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public Collection<Film> getRecommendations(Long id) {
-        List<Long> similarUserIds = jdbcTemplate.queryForList(FIND_MOST_QUERY, Long.class, id);
-        if (similarUserIds.isEmpty()) {
-            return Collections.emptyList();
-        }
-
-        Long similarUserId = similarUserIds.get(0);
-        List<Long> recommendedFilmIds = jdbcTemplate.queryForList(FIND_LIKES_QUERY, Long.class, similarUserId, id);
-        if (recommendedFilmIds.isEmpty()) {
-            return Collections.emptyList();
-        }
-
-        return recommendedFilmIds.stream().map(filmId -> filmStorage.findById(filmId)).filter(Optional::isPresent).map(Optional::get).collect(Collectors.toList());
+        // соседи предрасчитаны в индексе рекомендаций, фильмы загружаются пачкой
+        return filmStorage.getRecommendations(id);
     }
 
     @Override
+    @Transactional
     public void deleteById(Long userId) {
+        // лайки снимаем через хранилище фильмов, чтобы обновились счетчики и рейтинг популярности
+        filmStorage.removeLikesByUser(userId);
+        // то же для оценок отзывов и счетчика useful
+        reviewStorage.removeReactionsByUser(userId);
         jdbcTemplate.update(DELETE_USERS_BY_ID, userId);
+        AfterCommit.run(() -> friendGraph.removeUser(userId));
+        // пользователь пропадает из чужих списков друзей, его отзывы и оценки отзывов удаляются каскадом
+        versions.touchAllUsers();
+        versions.touchAllReviews();
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> userIds) {
+        Set<Long> existing = new HashSet<>();
+        List<Long> ids = new ArrayList<>(new HashSet<>(userIds));
+        for (int from = 0; from < ids.size(); from += HYDRATION_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + HYDRATION_CHUNK_SIZE, ids.size()));
+            String inSql = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            existing.addAll(jdbcTemplate.queryForList(String.format(FIND_EXISTING_IDS_QUERY, inSql), Long.class, chunk.toArray()));
+        }
+        return existing;
     }
 
     @Override
     public boolean isFriend(Long userId, Long friendId) {
-        Integer count = jdbcTemplate.queryForObject(FIND_COUNT_FRIENDS, Integer.class, userId, friendId);
-        return count != null && count > 0;
+        return friendGraph.isFriend(userId, friendId);
     }
 }
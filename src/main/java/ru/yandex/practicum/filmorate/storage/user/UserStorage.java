@@ -6,6 +6,7 @@ import ru.yandex.practicum.filmorate.model.User;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface UserStorage {
 
@@ -13,6 +14,8 @@ public interface UserStorage {
 
     User create(User user);
 
+    List<User> createAll(List<User> users);
+
     User update(User newUser);
 
     Optional<User> findById(Long id);
@@ -21,6 +24,8 @@ public interface UserStorage {
 
     void removeFriend(Long userId, Long friendId);
 
+    long[] getFriendIds(Long userId);
+
     List<User> getFriends(Long userId);
 
     List<User> getCommonFriends(Long userId, Long otherId);
@@ -30,4 +35,8 @@ public interface UserStorage {
     Collection<Film> getRecommendations(Long id);
 
     boolean isFriend(Long userId, Long friendId);
+
+    Set<Long> findExistingIds(Collection<Long> userIds);
+
+    Set<String> findExistingEmails(Collection<String> emails);
 }
@@ -0,0 +1,587 @@
+package ru.yandex.practicum.filmorate.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Сжатое множество id в духе Roaring bitmap. Значение делится на старшую часть (ключ контейнера)
+ * и младшие 16 бит, которые хранятся в одном из контейнеров: отсортированный массив char
+ * (до 4096 значений), битовая карта на 65536 бит или список интервалов. Не хранит упакованные Long,
+ * поэтому на один лайк тратится от 2 байт вместо ~48 у HashSet<Long>.
+ * Реализует Set<Long>, так что сериализуется в JSON так же, как обычное множество.
+ * Не потокобезопасно.
+ */
+public final class CompressedLongSet extends AbstractSet<Long> {
+    private static final int ARRAY_MAX_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private long[] keys = new long[4];
+    private Container[] containers = new Container[4];
+    private int containerCount;
+    private int cardinality;
+
+    public CompressedLongSet() {
+    }
+
+    public static CompressedLongSet of(Collection<Long> values) {
+        if (values instanceof CompressedLongSet compressed) {
+            return compressed.copy();
+        }
+        CompressedLongSet set = new CompressedLongSet();
+        for (Long value : values) {
+            set.add((long) value);
+        }
+        set.runOptimize();
+        return set;
+    }
+
+    public CompressedLongSet copy() {
+        CompressedLongSet copy = new CompressedLongSet();
+        copy.keys = Arrays.copyOf(keys, Math.max(containerCount, 1));
+        copy.containers = new Container[Math.max(containerCount, 1)];
+        for (int i = 0; i < containerCount; i++) {
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.containerCount = containerCount;
+        copy.cardinality = cardinality;
+        return copy;
+    }
+
+    public boolean contains(long value) {
+        int index = indexOfKey(value >> 16);
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long value && contains((long) value);
+    }
+
+    public boolean add(long value) {
+        long key = value >> 16;
+        char low = (char) value;
+        int index = indexOfKey(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, key, new ArrayContainer());
+        } else if (containers[index].contains(low)) {
+            return false;
+        }
+        containers[index] = containers[index].add(low);
+        cardinality++;
+        return true;
+    }
+
+    @Override
+    public boolean add(Long value) {
+        return add((long) value);
+    }
+
+    public boolean remove(long value) {
+        int index = indexOfKey(value >> 16);
+        char low = (char) value;
+        if (index < 0 || !containers[index].contains(low)) {
+            return false;
+        }
+        Container container = containers[index].remove(low);
+        cardinality--;
+        if (container.cardinality() == 0) {
+            removeContainer(index);
+        } else {
+            containers[index] = container;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof Long value && remove((long) value);
+    }
+
+    @Override
+    public int size() {
+        return cardinality;
+    }
+
+    @Override
+    public void clear() {
+        keys = new long[4];
+        containers = new Container[4];
+        containerCount = 0;
+        cardinality = 0;
+    }
+
+    public CompressedLongSet and(CompressedLongSet other) {
+        CompressedLongSet result = new CompressedLongSet();
+        int i = 0;
+        int j = 0;
+        while (i < containerCount && j < other.containerCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.insertContainer(result.containerCount, keys[i], container);
+                    result.cardinality += container.cardinality();
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public int andCardinality(CompressedLongSet other) {
+        int result = 0;
+        int i = 0;
+        int j = 0;
+        while (i < containerCount && j < other.containerCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result += containers[i].and(other.containers[j]).cardinality();
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    // Переводит контейнеры в самое компактное представление; полезно после массовой загрузки
+    public void runOptimize() {
+        for (int i = 0; i < containerCount; i++) {
+            containers[i] = containers[i].optimize();
+        }
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        return new Iterator<>() {
+            private int containerIndex = 0;
+            private int nextLow = nextFrom(0, 0);
+            private long lastReturned;
+            private boolean canRemove;
+
+            private int nextFrom(int index, int from) {
+                containerIndex = index;
+                while (containerIndex < containerCount) {
+                    int low = containers[containerIndex].nextValue(from);
+                    if (low >= 0) {
+                        return low;
+                    }
+                    containerIndex++;
+                    from = 0;
+                }
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return nextLow >= 0;
+            }
+
+            @Override
+            public Long next() {
+                if (nextLow < 0) {
+                    throw new NoSuchElementException();
+                }
+                long value = (keys[containerIndex] << 16) | nextLow;
+                nextLow = nextFrom(containerIndex, nextLow + 1);
+                lastReturned = value;
+                canRemove = true;
+                return value;
+            }
+
+            // нужен removeIf, retainAll и removeAll из AbstractSet
+            @Override
+            public void remove() {
+                if (!canRemove) {
+                    throw new IllegalStateException();
+                }
+                canRemove = false;
+                long nextKey = nextLow >= 0 ? keys[containerIndex] : 0;
+                CompressedLongSet.this.remove(lastReturned);
+                if (nextLow >= 0) {
+                    // опустевший контейнер удаляется и сдвигает следующие, ищем контейнер следующего значения заново
+                    containerIndex = indexOfKey(nextKey);
+                }
+            }
+        };
+    }
+
+    private int indexOfKey(long key) {
+        return Arrays.binarySearch(keys, 0, containerCount, key);
+    }
+
+    private void insertContainer(int index, long key, Container container) {
+        if (containerCount == keys.length) {
+            int capacity = Math.max(4, containerCount * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, containerCount - index);
+        System.arraycopy(containers, index, containers, index + 1, containerCount - index);
+        keys[index] = key;
+        containers[index] = container;
+        containerCount++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, containerCount - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, containerCount - index - 1);
+        containerCount--;
+        containers[containerCount] = null;
+    }
+
+    private abstract static class Container {
+        abstract boolean contains(char value);
+
+        // Добавляет отсутствующее значение, может вернуть контейнер другого типа
+        abstract Container add(char value);
+
+        // Удаляет присутствующее значение, может вернуть контейнер другого типа
+        abstract Container remove(char value);
+
+        abstract int cardinality();
+
+        // Наименьшее значение >= from или -1
+        abstract int nextValue(int from);
+
+        abstract Container copy();
+
+        abstract BitmapContainer toBitmap();
+
+        Container and(Container other) {
+            if (this instanceof ArrayContainer array) {
+                return array.filter(other);
+            }
+            if (other instanceof ArrayContainer array) {
+                return array.filter(this);
+            }
+            return toBitmap().andBitmap(other.toBitmap());
+        }
+
+        int runCount() {
+            int runs = 0;
+            int previous = -2;
+            for (int value = nextValue(0); value >= 0; value = nextValue(value + 1)) {
+                if (value != previous + 1) {
+                    runs++;
+                }
+                previous = value;
+            }
+            return runs;
+        }
+
+        Container optimize() {
+            int card = cardinality();
+            int runs = runCount();
+            int arrayBytes = card * 2;
+            int bitmapBytes = BITMAP_WORDS * 8;
+            int runBytes = runs * 4;
+            if (runBytes < Math.min(arrayBytes, bitmapBytes)) {
+                return this instanceof RunContainer ? this : RunContainer.from(this, runs);
+            }
+            if (card <= ARRAY_MAX_SIZE) {
+                return this instanceof ArrayContainer ? this : ArrayContainer.from(this);
+            }
+            return this instanceof BitmapContainer ? this : toBitmap();
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values = new char[4];
+        private int size;
+
+        static ArrayContainer from(Container source) {
+            ArrayContainer array = new ArrayContainer();
+            array.values = new char[Math.max(source.cardinality(), 4)];
+            for (int value = source.nextValue(0); value >= 0; value = source.nextValue(value + 1)) {
+                array.values[array.size++] = (char) value;
+            }
+            return array;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        @Override
+        Container add(char value) {
+            if (size >= ARRAY_MAX_SIZE) {
+                return toBitmap().add(value);
+            }
+            int index = -Arrays.binarySearch(values, 0, size, value) - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(size * 2, ARRAY_MAX_SIZE));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            return this;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        int nextValue(int from) {
+            if (from > 0xFFFF) {
+                return -1;
+            }
+            int index = Arrays.binarySearch(values, 0, size, (char) from);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index < size ? values[index] : -1;
+        }
+
+        @Override
+        Container copy() {
+            ArrayContainer copy = new ArrayContainer();
+            copy.values = Arrays.copyOf(values, Math.max(size, 4));
+            copy.size = size;
+            return copy;
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < size; i++) {
+                bitmap.set(values[i]);
+            }
+            return bitmap;
+        }
+
+        ArrayContainer filter(Container other) {
+            ArrayContainer result = new ArrayContainer();
+            result.values = new char[Math.max(size, 4)];
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i])) {
+                    result.values[result.size++] = values[i];
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words = new long[BITMAP_WORDS];
+        private int cardinality;
+
+        void set(char value) {
+            words[value >>> 6] |= 1L << value;
+            cardinality++;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            words[value >>> 6] &= ~(1L << value);
+            cardinality--;
+            return cardinality <= ARRAY_MAX_SIZE ? ArrayContainer.from(this) : this;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextValue(int from) {
+            if (from > 0xFFFF) {
+                return -1;
+            }
+            int wordIndex = from >>> 6;
+            long word = words[wordIndex] & (-1L << from);
+            while (true) {
+                if (word != 0) {
+                    return wordIndex * 64 + Long.numberOfTrailingZeros(word);
+                }
+                if (++wordIndex == BITMAP_WORDS) {
+                    return -1;
+                }
+                word = words[wordIndex];
+            }
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, BITMAP_WORDS);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            return this;
+        }
+
+        Container andBitmap(BitmapContainer other) {
+            BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result.words[i] = words[i] & other.words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            return result.cardinality <= ARRAY_MAX_SIZE ? ArrayContainer.from(result) : result;
+        }
+
+        @Override
+        int runCount() {
+            int runs = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                long next = i + 1 < BITMAP_WORDS ? words[i + 1] : 0;
+                // число концов интервалов: единица, за которой следует ноль
+                runs += Long.bitCount(word & ~((word >>> 1) | (next << 63)));
+            }
+            return runs;
+        }
+    }
+
+    private static final class RunContainer extends Container {
+        private char[] starts;
+        // длина интервала минус один, чтобы уместить интервал из 65536 значений
+        private char[] lengths;
+        private int runCount;
+        private int cardinality;
+
+        static RunContainer from(Container source, int runs) {
+            RunContainer run = new RunContainer();
+            run.starts = new char[runs];
+            run.lengths = new char[runs];
+            int start = -1;
+            int previous = -2;
+            for (int value = source.nextValue(0); value >= 0; value = source.nextValue(value + 1)) {
+                if (value != previous + 1) {
+                    if (start >= 0) {
+                        run.append(start, previous);
+                    }
+                    start = value;
+                }
+                previous = value;
+            }
+            if (start >= 0) {
+                run.append(start, previous);
+            }
+            return run;
+        }
+
+        private void append(int start, int end) {
+            starts[runCount] = (char) start;
+            lengths[runCount] = (char) (end - start);
+            runCount++;
+            cardinality += end - start + 1;
+        }
+
+        // Индекс интервала, начинающегося не позже value, или -1
+        private int runIndex(int value) {
+            int low = 0;
+            int high = runCount - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] <= value) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        @Override
+        boolean contains(char value) {
+            int index = runIndex(value);
+            return index >= 0 && value <= starts[index] + lengths[index];
+        }
+
+        @Override
+        Container add(char value) {
+            return mutable().add(value);
+        }
+
+        @Override
+        Container remove(char value) {
+            return mutable().remove(value);
+        }
+
+        private Container mutable() {
+            return cardinality <= ARRAY_MAX_SIZE ? ArrayContainer.from(this) : toBitmap();
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextValue(int from) {
+            if (from > 0xFFFF) {
+                return -1;
+            }
+            int index = runIndex(from);
+            if (index >= 0 && from <= starts[index] + lengths[index]) {
+                return from;
+            }
+            return index + 1 < runCount ? starts[index + 1] : -1;
+        }
+
+        @Override
+        Container copy() {
+            RunContainer copy = new RunContainer();
+            copy.starts = Arrays.copyOf(starts, runCount);
+            copy.lengths = Arrays.copyOf(lengths, runCount);
+            copy.runCount = runCount;
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < runCount; i++) {
+                int end = starts[i] + lengths[i];
+                for (int value = starts[i]; value <= end; value++) {
+                    bitmap.set((char) value);
+                }
+            }
+            return bitmap;
+        }
+
+        @Override
+        int runCount() {
+            return runCount;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ru.yandex.practicum.filmorate.util;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Разбор списка id из GROUP_CONCAT прямо в строке: число накапливается по цифрам,
+ * без split, trim и промежуточных строк на каждый элемент.
+ */
+public final class IdListDecoder {
+    public static final char SEPARATOR = ',';
+
+    private IdListDecoder() {
+    }
+
+    public static void forEach(CharSequence ids, LongConsumer consumer) {
+        if (ids == null) {
+            return;
+        }
+        long value = 0;
+        boolean inNumber = false;
+        for (int i = 0; i < ids.length(); i++) {
+            char c = ids.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                inNumber = true;
+            } else if (c == SEPARATOR) {
+                if (inNumber) {
+                    consumer.accept(value);
+                }
+                value = 0;
+                inNumber = false;
+            } else if (c != ' ') {
+                throw new IllegalArgumentException("Некорректный список id: " + ids);
+            }
+        }
+        if (inNumber) {
+            consumer.accept(value);
+        }
+    }
+}
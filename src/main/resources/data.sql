@@ -7,8 +7,7 @@ DELETE FROM friends;
 DELETE FROM films_genres;
 DELETE FROM genres;
 DELETE FROM likes;
-DELETE FROM review_likes;
-DELETE FROM review_dislikes;
+DELETE FROM review_reactions;
 DELETE FROM users;
 DELETE FROM films;
 DELETE FROM reviews;
@@ -16,7 +15,7 @@ DELETE FROM events;
 ALTER TABLE users ALTER COLUMN USER_ID RESTART WITH 1;
 ALTER TABLE films ALTER COLUMN FILM_ID RESTART WITH 1;
 ALTER TABLE reviews ALTER COLUMN REVIEW_ID RESTART WITH 1;
-ALTER TABLE events ALTER COLUMN EVENT_ID RESTART WITH 1;
+ALTER SEQUENCE events_seq RESTART WITH 1;
 ALTER TABLE directors ALTER COLUMN director_id RESTART WITH 1;
 
 -- 4. Включаем проверки внешних ключей обратно
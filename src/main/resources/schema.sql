@@ -14,9 +14,16 @@ CREATE TABLE IF NOT EXISTS films (
     description varchar(250) NOT NULL,
     release_date DATE,
     duration INTEGER,
-    mpa_id BIGINT
+    mpa_id BIGINT,
+    likes_count INTEGER NOT NULL DEFAULT 0
     );
 
+-- Для файловых БД, созданных до появления счетчика лайков: столбец добавляется нулями и заполняется ниже, после likes
+ALTER TABLE films ADD COLUMN IF NOT EXISTS likes_count INTEGER NOT NULL DEFAULT 0;
+
+-- рейтинг строится в памяти из likes_count (FilmPopularityIndex), индекс по счетчику только замедлял запись лайков
+DROP INDEX IF EXISTS films_likes_count_idx;
+
 CREATE TABLE IF NOT EXISTS films_genres (
                                             film_id BIGINT NOT NULL,
                                             genre_id BIGINT NOT NULL,
@@ -25,6 +32,8 @@ CREATE TABLE IF NOT EXISTS films_genres (
     FOREIGN KEY(genre_id) REFERENCES genres(genre_id)
     );
 
+CREATE INDEX IF NOT EXISTS films_genres_genre_idx ON films_genres (genre_id, film_id);
+
 CREATE TABLE IF NOT EXISTS users (
                                      user_id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
                                      email varchar(255) UNIQUE NOT NULL,
@@ -51,6 +60,9 @@ CREATE TABLE IF NOT EXISTS likes (
 
     );
 
+-- счетчик likes_count сверяется с таблицей лайков: на БД до его появления все фильмы имели бы 0 лайков
+UPDATE films f SET likes_count = (SELECT COUNT(*) FROM likes l WHERE l.film_id = f.film_id);
+
 -- Таблица для хранения отзывов
 CREATE TABLE IF NOT EXISTS reviews (
                                        review_id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
@@ -59,10 +71,12 @@ CREATE TABLE IF NOT EXISTS reviews (
                                        user_id BIGINT NOT NULL REFERENCES users (user_id) ON DELETE CASCADE,
     film_id BIGINT NOT NULL REFERENCES films (film_id) ON DELETE CASCADE,
     created_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    useful INTEGER NOT NULL DEFAULT 0,
     CONSTRAINT content_length_check CHECK (LENGTH(content) <= 5000)
     );
 
--- Таблица для хранения лайков отзывов
+-- Отдельные таблицы лайков и дизлайков, которые были до review_reactions. Из них заполняется useful и переносятся
+-- оценки ниже; на новой БД они создаются пустыми, чтобы перенос выполнялся одинаково, и сразу удаляются
 CREATE TABLE IF NOT EXISTS review_likes (
                                             review_id BIGINT NOT NULL REFERENCES reviews (review_id) ON DELETE CASCADE,
     user_id BIGINT NOT NULL REFERENCES users (user_id) ON DELETE CASCADE,
@@ -70,7 +84,6 @@ CREATE TABLE IF NOT EXISTS review_likes (
     PRIMARY KEY (review_id, user_id)
     );
 
--- Таблица для хранения дизлайков отзывов
 CREATE TABLE IF NOT EXISTS review_dislikes (
                                                review_id BIGINT NOT NULL REFERENCES reviews (review_id) ON DELETE CASCADE,
     user_id BIGINT NOT NULL REFERENCES users (user_id) ON DELETE CASCADE,
@@ -78,8 +91,49 @@ CREATE TABLE IF NOT EXISTS review_dislikes (
     PRIMARY KEY (review_id, user_id)
     );
 
+-- Для файловых БД, созданных до появления счетчика полезности: столбец добавляется нулями и заполняется
+-- по лайкам и дизлайкам отзывов
+ALTER TABLE reviews ADD COLUMN IF NOT EXISTS useful INTEGER NOT NULL DEFAULT 0;
+
+UPDATE reviews r SET useful = (SELECT COUNT(*) FROM review_likes l WHERE l.review_id = r.review_id)
+    - (SELECT COUNT(*) FROM review_dislikes d WHERE d.review_id = r.review_id)
+WHERE r.review_id IN (SELECT review_id FROM review_likes UNION SELECT review_id FROM review_dislikes);
+
+-- отзывы фильма и общий список читаются по (useful DESC, review_id) с LIMIT без сортировки всей таблицы
+CREATE INDEX IF NOT EXISTS reviews_film_useful_idx ON reviews (film_id, useful DESC, review_id);
+CREATE INDEX IF NOT EXISTS reviews_useful_idx ON reviews (useful DESC, review_id);
+
+-- Оценки отзывов: reaction = 1 (лайк) или -1 (дизлайк), у пользователя не больше одной оценки отзыва.
+-- Столбец не назван value: в H2 это зарезервированное слово
+CREATE TABLE IF NOT EXISTS review_reactions (
+                                                review_id BIGINT NOT NULL REFERENCES reviews (review_id) ON DELETE CASCADE,
+    user_id BIGINT NOT NULL REFERENCES users (user_id) ON DELETE CASCADE,
+    reaction SMALLINT NOT NULL,
+    created_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (review_id, user_id),
+    CONSTRAINT review_reaction_check CHECK (reaction IN (-1, 1))
+    );
+
+-- оценки пользователя снимаются при его удалении
+CREATE INDEX IF NOT EXISTS review_reactions_user_idx ON review_reactions (user_id);
+
+-- у пары с лайком и дизлайком одновременно остается лайк, как после последнего addLike
+MERGE INTO review_reactions (review_id, user_id, reaction, created_date) KEY (review_id, user_id)
+SELECT review_id, user_id, -1, created_date FROM review_dislikes;
+
+MERGE INTO review_reactions (review_id, user_id, reaction, created_date) KEY (review_id, user_id)
+SELECT review_id, user_id, 1, created_date FROM review_likes;
+
+-- useful пересчитывается только у отзывов, где дизлайк пары заменен лайком
+UPDATE reviews r SET useful = (SELECT COALESCE(SUM(rr.reaction), 0) FROM review_reactions rr WHERE rr.review_id = r.review_id)
+WHERE r.review_id IN (SELECT l.review_id FROM review_likes l
+                      JOIN review_dislikes d ON d.review_id = l.review_id AND d.user_id = l.user_id);
+
+DROP TABLE review_likes;
+DROP TABLE review_dislikes;
+
 CREATE TABLE IF NOT EXISTS events (
-                                      event_id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                                      event_id BIGINT PRIMARY KEY,
                                       ts BIGINT NOT NULL,
                                       user_id BIGINT NOT NULL,
                                       event_type VARCHAR(10) NOT NULL,
@@ -88,6 +142,17 @@ CREATE TABLE IF NOT EXISTS events (
     FOREIGN KEY(user_id) REFERENCES users(user_id) ON DELETE CASCADE
     );
 
+-- лента пользователя читается по (user_id, ts, event_id) без сканирования всего журнала
+CREATE INDEX IF NOT EXISTS events_user_ts_idx ON events (user_id, ts, event_id);
+
+-- id событий EventWriter берет из последовательности блоками по INCREMENT BY, чтобы событие получило id
+-- до записи. На файловой БД, созданной до последовательности, нумерация продолжается после записанных событий
+CREATE SEQUENCE IF NOT EXISTS events_seq START WITH (SELECT COALESCE(MAX(event_id), 0) + 1 FROM events) INCREMENT BY 100;
+
+-- Для файловых БД, созданных до последовательности: event_id был identity
+ALTER TABLE events ALTER COLUMN event_id DROP IDENTITY;
+ALTER TABLE events ALTER COLUMN event_id SET DEFAULT NEXT VALUE FOR events_seq;
+
 CREATE TABLE IF NOT EXISTS directors (
                                          director_id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
                                          name VARCHAR(255) NOT NULL
@@ -1,6 +1,7 @@
 package ru.yandex.practicum.filmorate.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -8,24 +9,41 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.metrics.SqlBudget;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmPopularityIndex;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
 
 import java.time.Duration;
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@SpringBootTest
+// маленькие пачки импорта, чтобы проверять границы пачек на нескольких элементах
+@SpringBootTest(properties = "filmorate.import.chunk-size=2")
 @AutoConfigureMockMvc
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
 class FilmControllerTest {
+    // H2 не заполняет BLOCKER_ID при ожидании блокировки строки, поэтому ждущая вставка ищется по тексту запроса
+    private static final String INSERTING_LIKES_SESSIONS_QUERY = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS " +
+            "WHERE EXECUTING_STATEMENT LIKE 'INSERT INTO likes (film_id, user_id) SELECT%'";
 
     @Autowired
     private MockMvc mockMvc;
@@ -33,6 +51,15 @@ class FilmControllerTest {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private FilmPopularityIndex popularityIndex;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
     @Test
     void createFilmIntegrationTest() throws Exception {
         Film film = new Film(null, "С легким паром", "Советский фильм", Duration.ofMinutes(120), LocalDate.of(1990, 7, 16), new HashSet<>(),  new Mpa(1L, null), new HashSet<>(), new HashSet<>());
@@ -129,7 +156,9 @@ class FilmControllerTest {
 
         mockMvc.perform(get("/films"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$", hasSize(2)));
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(SqlBudget.atMost(4))
+                .andExpect(SqlBudget.noRepeatedStatements());
     }
 
     @Test
@@ -156,7 +185,8 @@ class FilmControllerTest {
 
         mockMvc.perform(get("/films/popular?count=5"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$[0].name").value("Крик"));
+                .andExpect(jsonPath("$[0].name").value("Крик"))
+                .andExpect(SqlBudget.atMost(3));
 
         mockMvc.perform(delete("/films/1/like/1"))
                 .andExpect(status().isOk());
@@ -165,4 +195,293 @@ class FilmControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(content().json("[{\"id\":1,\"name\":\"Крик\",\"description\":\"Крик ужастик\",\"releaseDate\":\"2001-01-01\",\"duration\":90,\"likes\":[],\"directors\":[]}]"));
     }
+
+    @Test
+    void shouldAnswerNotModifiedUntilFilmChanges() throws Exception {
+        Film film = new Film(null, "Сталкер", "Зона", Duration.ofMinutes(160), LocalDate.of(1979, 5, 25), new HashSet<>(), new Mpa(1L, null), new HashSet<>(),
+                new HashSet<>());
+        User user = new User(null, "user1@example.com", "login1", "User1", LocalDate.of(1990, 1, 1), new HashSet<>());
+        mockMvc.perform(post("/films")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(film)))
+                .andExpect(status().isOk());
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(user)))
+                .andExpect(status().isOk());
+
+        String etag = mockMvc.perform(get("/films/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/films/1").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""))
+                .andExpect(SqlBudget.atMost(0));
+
+        mockMvc.perform(put("/films/1/like/1"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/films/1").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.likes", hasSize(1)));
+    }
+
+    @Test
+    void shouldNotTagMissingFilm() throws Exception {
+        Film film = new Film(null, "Сталкер", "Зона", Duration.ofMinutes(160), LocalDate.of(1979, 5, 25), new HashSet<>(), new Mpa(1L, null), new HashSet<>(),
+                new HashSet<>());
+        mockMvc.perform(post("/films")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(film)))
+                .andExpect(status().isOk());
+        String etag = mockMvc.perform(get("/films/1"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/films/999"))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist("ETag"));
+        mockMvc.perform(get("/films/999").header("If-None-Match", "*"))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist("ETag"));
+
+        mockMvc.perform(delete("/films/1"))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/films/1").header("If-None-Match", etag))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist("ETag"));
+        mockMvc.perform(get("/reviews").param("filmId", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("ETag"));
+    }
+
+    @Test
+    void shouldImportFilmsAndReportRejectedByIndex() throws Exception {
+        Film single = new Film(null, "Одиночный", "Описание", Duration.ofMinutes(100), LocalDate.of(2001, 1, 1),
+                new HashSet<>(), new Mpa(1L, null), new HashSet<>(), new HashSet<>());
+        mockMvc.perform(post("/films")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(single)))
+                .andExpect(status().isOk());
+
+        Map<String, Object> withGenres = filmJson("Первый", 1);
+        withGenres.put("genres", List.of(Map.of("id", 1), Map.of("id", 2)));
+        Map<String, Object> withoutMpa = filmJson("Без рейтинга", 1);
+        withoutMpa.remove("mpa");
+        Map<String, Object> badDuration = filmJson("Длина строкой", 1);
+        badDuration.put("duration", "долго");
+        String body = objectMapper.writeValueAsString(List.of(
+                withGenres,
+                filmJson("", 1),
+                withoutMpa,
+                filmJson("Второй", 2),
+                filmJson("Чужой рейтинг", 99),
+                badDuration,
+                filmJson("Третий", 3)));
+
+        mockMvc.perform(post("/films/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(3))
+                .andExpect(jsonPath("$.rejected").value(4))
+                .andExpect(jsonPath("$.idRanges", hasSize(1)))
+                .andExpect(jsonPath("$.idRanges[0].from").value(2))
+                .andExpect(jsonPath("$.idRanges[0].to").value(4))
+                .andExpect(jsonPath("$.errors[*].index").value(contains(1, 2, 4, 5)))
+                .andExpect(jsonPath("$.errors[1].message").value("Не указан рейтинг MPA"));
+
+        mockMvc.perform(get("/films/2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Первый"))
+                .andExpect(jsonPath("$.genres", hasSize(2)));
+        mockMvc.perform(get("/films/4"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Третий"));
+    }
+
+    @Test
+    void shouldRankPopularFilmsByLikesThenIdWithinGenreAndYear() throws Exception {
+        perform(post("/films"), film("Первый", "2000-05-01", 1));
+        perform(post("/films"), film("Второй", "2001-05-01", 1, 2));
+        perform(post("/films"), film("Третий", "2000-06-01", 2));
+        perform(post("/films"), film("Четвертый", "2000-07-01"));
+        for (int i = 1; i <= 3; i++) {
+            perform(post("/users"), new User(null, "user" + i + "@example.com", "login" + i, "User" + i,
+                    LocalDate.of(1990, 1, 1), new HashSet<>()));
+        }
+        for (String like : List.of("2/like/1", "2/like/2", "3/like/1", "3/like/2", "1/like/1", "4/like/3")) {
+            mockMvc.perform(put("/films/" + like)).andExpect(status().isOk());
+        }
+
+        // равные по лайкам фильмы идут по возрастанию id
+        expectPopular("", 2, 3, 1, 4);
+        expectPopular("&genreId=1", 2, 1);
+        expectPopular("&genreId=2", 2, 3);
+        expectPopular("&year=2000", 3, 1, 4);
+        expectPopular("&genreId=1&year=2000", 1);
+        expectPopular("&genreId=2&year=2000", 3);
+        expectPopular("&genreId=3");
+
+        mockMvc.perform(delete("/films/2/like/1")).andExpect(status().isOk());
+        expectPopular("", 3, 1, 2, 4);
+        expectPopular("&genreId=1", 1, 2);
+
+        Map<String, Object> moved = film("Первый", "2001-05-01", 2);
+        moved.put("id", 1);
+        perform(put("/films"), moved);
+        expectPopular("&genreId=1", 2);
+        expectPopular("&genreId=2", 3, 1, 2);
+        expectPopular("&year=2000", 3, 4);
+        expectPopular("&year=2001", 1, 2);
+        expectPopular("&genreId=2&year=2001", 1, 2);
+        expectPopular("&genreId=1&year=2000");
+
+        // лайки удаленного пользователя снимаются с рейтинга
+        mockMvc.perform(delete("/users/1")).andExpect(status().is2xxSuccessful());
+        expectPopular("", 2, 3, 4, 1);
+        expectPopular("&genreId=2", 2, 3, 1);
+        mockMvc.perform(get("/films/popular?count=2"))
+                .andExpect(jsonPath("$[*].id").value(contains(2, 3)));
+
+        // счетчики likes_count в БД совпадают с рейтингом в памяти
+        popularityIndex.rebuild();
+        expectPopular("", 2, 3, 4, 1);
+        expectPopular("&genreId=2&year=2001", 2, 1);
+    }
+
+    @Test
+    void shouldReportStatusOfEachLikeOperationInBatch() throws Exception {
+        perform(post("/films"), filmJson("Первый", 1));
+        perform(post("/films"), filmJson("Второй", 1));
+        for (int i = 1; i <= 2; i++) {
+            perform(post("/users"), new User(null, "user" + i + "@example.com", "login" + i, "User" + i,
+                    LocalDate.of(1990, 1, 1), new HashSet<>()));
+        }
+        mockMvc.perform(put("/films/1/like/1")).andExpect(status().isOk());
+
+        // операции проигрываются по порядку, как отдельные запросы: повтор и отмена внутри пакета учитываются
+        List<Map<String, Object>> batch = List.of(
+                likeOperation(1, 1, "ADD"),
+                likeOperation(2, 1, "ADD"),
+                likeOperation(1, 2, "REMOVE"),
+                likeOperation(999, 1, "ADD"),
+                likeOperation(1, 999, "ADD"),
+                likeOperation(null, 1, "ADD"),
+                likeOperation(1, 1, "UPDATE"),
+                likeOperation(1, 1, "REMOVE"),
+                likeOperation(1, 1, "ADD"),
+                likeOperation(2, 2, "ADD"),
+                likeOperation(2, 2, "REMOVE"),
+                likeOperation(2, 2, "ADD"),
+                likeOperation(2, 1, "ADD"));
+        mockMvc.perform(post("/films/likes/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(batch)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].status").value(contains("UNCHANGED", "APPLIED", "UNCHANGED",
+                        "FILM_NOT_FOUND", "USER_NOT_FOUND", "INVALID", "INVALID", "APPLIED", "APPLIED",
+                        "APPLIED", "APPLIED", "APPLIED", "UNCHANGED")))
+                .andExpect(jsonPath("$[3].filmId").value(999));
+
+        mockMvc.perform(get("/films/1"))
+                .andExpect(jsonPath("$.likes").value(contains(1)));
+        mockMvc.perform(get("/films/2"))
+                .andExpect(jsonPath("$.likes").value(contains(1, 2)));
+        expectPopular("", 2, 1);
+        mockMvc.perform(get("/users/2/feed"))
+                .andExpect(jsonPath("$[*].operation").value(contains("ADD", "REMOVE", "ADD")));
+
+        popularityIndex.rebuild();
+        expectPopular("", 2, 1);
+    }
+
+    @Test
+    void shouldRetryLikesOneByOneWhenConcurrentLikeOverlapsBatch() throws Exception {
+        perform(post("/films"), filmJson("Первый", 1));
+        perform(post("/films"), filmJson("Второй", 1));
+        perform(post("/users"), new User(null, "user1@example.com", "login1", "User1",
+                LocalDate.of(1990, 1, 1), new HashSet<>()));
+        String batch = objectMapper.writeValueAsString(List.of(likeOperation(1, 1, "ADD"), likeOperation(2, 1, "ADD")));
+
+        AtomicReference<MvcResult> response = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread batchThread = new Thread(() -> {
+            try {
+                response.set(mockMvc.perform(post("/films/likes/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(batch)).andReturn());
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        // лайк (1, 1) вставляется в незакоммиченной транзакции: пакет не видит его при чтении,
+        // ждет блокировку строки на вставке и после коммита получает нарушение ключа
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("INSERT INTO likes (film_id, user_id) VALUES (1, 1)");
+            jdbcTemplate.update("UPDATE films SET likes_count = likes_count + 1 WHERE film_id = 1");
+            batchThread.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (jdbcTemplate.queryForObject(INSERTING_LIKES_SESSIONS_QUERY, Integer.class) == 0) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.onSpinWait();
+            }
+        });
+        batchThread.join(10_000);
+
+        assertThat(failure.get()).isNull();
+        assertThat(response.get().getResponse().getStatus()).isEqualTo(200);
+        List<String> statuses = JsonPath.read(response.get().getResponse().getContentAsString(), "$[*].status");
+        assertThat(statuses.get(1)).isEqualTo("APPLIED");
+        assertThat(jdbcTemplate.queryForList("SELECT film_id FROM likes WHERE user_id = 1 ORDER BY film_id",
+                Long.class)).containsExactly(1L, 2L);
+        // строка, вставленная параллельно, не учтена в счетчике второй раз
+        assertThat(jdbcTemplate.queryForList("SELECT likes_count FROM films ORDER BY film_id", Integer.class))
+                .containsExactly(1, 1);
+        mockMvc.perform(get("/films/2"))
+                .andExpect(jsonPath("$.likes").value(contains(1)));
+        // лайк, вставленный в обход хранилища, рейтингу неизвестен: пакет прибавил только второй фильм
+        expectPopular("", 2, 1);
+    }
+
+    private static Map<String, Object> likeOperation(Integer filmId, Integer userId, String op) {
+        Map<String, Object> operation = new LinkedHashMap<>();
+        operation.put("filmId", filmId);
+        operation.put("userId", userId);
+        operation.put("op", op);
+        return operation;
+    }
+
+    private static Map<String, Object> filmJson(String name, long mpaId) {
+        Map<String, Object> film = new LinkedHashMap<>();
+        film.put("name", name);
+        film.put("description", "Описание");
+        film.put("releaseDate", "2000-01-01");
+        film.put("duration", 90);
+        film.put("mpa", Map.of("id", mpaId));
+        return film;
+    }
+
+    private static Map<String, Object> film(String name, String releaseDate, long... genreIds) {
+        Map<String, Object> film = filmJson(name, 1);
+        film.put("releaseDate", releaseDate);
+        film.put("genres", Arrays.stream(genreIds).mapToObj(id -> Map.of("id", id)).toList());
+        return film;
+    }
+
+    private void perform(MockHttpServletRequestBuilder request, Object body) throws Exception {
+        mockMvc.perform(request
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(body)))
+                .andExpect(status().isOk());
+    }
+
+    private void expectPopular(String filter, Integer... ids) throws Exception {
+        mockMvc.perform(get("/films/popular?count=10" + filter))
+                .andExpect(status().isOk())
+                .andExpect(ids.length == 0 ? jsonPath("$").isEmpty() : jsonPath("$[*].id").value(contains(ids)));
+    }
 }
@@ -1,24 +1,38 @@
 package ru.yandex.practicum.filmorate.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
+import ru.yandex.practicum.filmorate.metrics.SqlBudget;
 import ru.yandex.practicum.filmorate.model.User;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashSet;
+import java.util.List;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@SpringBootTest
+// маленькие пачки импорта, чтобы проверять границы пачек на нескольких элементах
+@SpringBootTest(properties = "filmorate.import.chunk-size=2")
 @AutoConfigureMockMvc
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
 public class UserControllerTest {
@@ -29,6 +43,9 @@ public class UserControllerTest {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Test
     void shouldCreateUserSuccessfully() throws Exception {
         User user = new User(null, "user@example.com", "userLogin", "Имя", LocalDate.of(1990, 1, 1), new HashSet<>());
@@ -94,7 +111,8 @@ public class UserControllerTest {
 
         mockMvc.perform(get("/users"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$", hasSize(2)));
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(SqlBudget.atMost(1));
     }
 
     @Test
@@ -119,7 +137,8 @@ public class UserControllerTest {
 
         mockMvc.perform(get("/users/1/friends"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$[0].login").value("login2"));
+                .andExpect(jsonPath("$[0].login").value("login2"))
+                .andExpect(SqlBudget.atMost(2));
 
 
         mockMvc.perform(delete("/users/1/friends/2"))
@@ -130,4 +149,160 @@ public class UserControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(content().json("[]"));
     }
+
+    @Test
+    void shouldNotTagFriendsOfMissingUser() throws Exception {
+        User user = new User(null, "user@example.com", "userLogin", "Имя", LocalDate.of(1990, 1, 1), new HashSet<>());
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(user)))
+                .andExpect(status().isOk());
+        String etag = mockMvc.perform(get("/users/1/friends"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/users/999/friends"))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist("ETag"));
+        mockMvc.perform(get("/users/999/friends").header("If-None-Match", "*"))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist("ETag"));
+
+        mockMvc.perform(delete("/users/1"))
+                .andExpect(status().is2xxSuccessful());
+
+        mockMvc.perform(get("/users/1/friends").header("If-None-Match", etag))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist("ETag"));
+    }
+
+    @Test
+    void shouldImportUsersAndReportRejectedByIndex() throws Exception {
+        User existing = new User(null, "taken@example.com", "taken", "Имя", LocalDate.of(1990, 1, 1), new HashSet<>());
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(existing)))
+                .andExpect(status().isOk());
+
+        // пачки по 2 принятых элемента: [0, 2], [3, 4], [5, 6], [7]. Имейлы 3 и 4 уже записаны,
+        // имейл 6 повторяет 5 в той же пачке
+        String body = "[" + String.join(",",
+                userJson("a@example.com", "a"),
+                userJson("not-an-email", "bad"),
+                userJson("b@example.com", "b"),
+                userJson("a@example.com", "a2"),
+                userJson("taken@example.com", "t2"),
+                userJson("c@example.com", "c"),
+                userJson("c@example.com", "c2"),
+                userJson("d@example.com", "d")) + "]";
+
+        mockMvc.perform(post("/users/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(4))
+                .andExpect(jsonPath("$.rejected").value(4))
+                .andExpect(jsonPath("$.idRanges", hasSize(1)))
+                .andExpect(jsonPath("$.idRanges[0].from").value(2))
+                .andExpect(jsonPath("$.idRanges[0].to").value(5))
+                .andExpect(jsonPath("$.errors[*].index").value(contains(1, 3, 4, 6)))
+                .andExpect(jsonPath("$.errors[1].message").value("Этот имейл уже используется"))
+                .andExpect(jsonPath("$.errors[2].message").value("Этот имейл уже используется"))
+                .andExpect(jsonPath("$.errors[3].message").value("Этот имейл уже используется"));
+
+        mockMvc.perform(get("/users"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].email").value(containsInAnyOrder("taken@example.com",
+                        "a@example.com", "b@example.com", "c@example.com", "d@example.com")));
+    }
+
+    @Test
+    void shouldKeepCommittedChunksWhenJsonBreaksLater() throws Exception {
+        // первая пачка из двух элементов записана до ошибки разбора
+        String body = "[" + userJson("a@example.com", "a") + "," + userJson("b@example.com", "b") + ","
+                + "{\"email\": \"c@example.com\", \"login\":";
+
+        mockMvc.perform(post("/users/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value(containsString("Импортировано элементов: 2")));
+
+        mockMvc.perform(get("/users"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].email").value(containsInAnyOrder("a@example.com", "b@example.com")));
+    }
+
+    @Test
+    void shouldPageFeedByCursorAcrossEventsWithSameTimestamp() throws Exception {
+        User user = new User(null, "user@example.com", "userLogin", "Имя", LocalDate.of(1990, 1, 1), new HashSet<>());
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(user)))
+                .andExpect(status().isOk());
+        // пять событий с одной меткой времени: внутри нее порядок и граница страницы идут по event_id
+        long[][] events = {{10, 1100}, {11, 1000}, {12, 1000}, {13, 1000}, {14, 1000}, {15, 1000}, {16, 900}};
+        for (long[] event : events) {
+            jdbcTemplate.update("INSERT INTO events (event_id, ts, user_id, event_type, operation, entity_id) " +
+                    "VALUES (?, ?, 1, 'FRIEND', 'ADD', 2)", event[0], event[1]);
+        }
+        List<Integer> feed = List.of(16, 11, 12, 13, 14, 15, 10);
+
+        mockMvc.perform(get("/users/1/feed"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-Cursor"))
+                .andExpect(jsonPath("$[*].eventId").value(contains(feed.toArray())));
+
+        for (int size : new int[]{1, 2, 3, 6, 7, 1000}) {
+            List<Integer> paged = new ArrayList<>();
+            String cursor = null;
+            int pages = 0;
+            do {
+                MockHttpServletRequestBuilder request = get("/users/1/feed").param("size", String.valueOf(size));
+                if (cursor != null) {
+                    request.param("cursor", cursor);
+                }
+                MvcResult result = mockMvc.perform(request)
+                        .andExpect(status().isOk())
+                        .andReturn();
+                List<Integer> page = JsonPath.read(result.getResponse().getContentAsString(), "$[*].eventId");
+                assertThat(page).hasSizeLessThanOrEqualTo(size).isNotEmpty();
+                paged.addAll(page);
+                cursor = result.getResponse().getHeader("X-Next-Cursor");
+                pages++;
+            } while (cursor != null);
+            // на последней странице курсора нет, даже если она заполнена целиком
+            assertThat(paged).isEqualTo(feed);
+            assertThat(pages).isEqualTo((feed.size() + size - 1) / size);
+        }
+    }
+
+    @Test
+    void shouldRejectMalformedFeedCursorAndPageSize() throws Exception {
+        User user = new User(null, "user@example.com", "userLogin", "Имя", LocalDate.of(1990, 1, 1), new HashSet<>());
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(user)))
+                .andExpect(status().isOk());
+
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        for (String cursor : List.of("not a cursor", base64.encodeToString("1000".getBytes(StandardCharsets.UTF_8)),
+                base64.encodeToString("1000:x".getBytes(StandardCharsets.UTF_8)))) {
+            mockMvc.perform(get("/users/1/feed").param("cursor", cursor))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.error").value(containsString("курсор")));
+        }
+        for (String size : List.of("0", "1001", "-1")) {
+            mockMvc.perform(get("/users/1/feed").param("size", size))
+                    .andExpect(status().isBadRequest());
+        }
+        mockMvc.perform(get("/users/1/feed").param("size", "1000"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-Cursor"));
+    }
+
+    private static String userJson(String email, String login) {
+        return String.format("{\"email\": \"%s\", \"login\": \"%s\", \"birthday\": \"1990-01-01\"}", email, login);
+    }
 }
@@ -0,0 +1,44 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.ResultMatcher;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Бюджет SQL-запросов на HTTP-запрос для MockMvc: проверяет заголовки, которые пишет {@link SqlRequestStatsFilter}
+ * при filmorate.sql.stats-headers=true. Бюджет задается на наборе из нескольких строк, поэтому
+ * запрос на каждую строку (N+1) выводит эндпоинт за бюджет.
+ */
+public final class SqlBudget {
+
+    private SqlBudget() {
+    }
+
+    public static ResultMatcher atMost(int maxStatements) {
+        return result -> {
+            MockHttpServletResponse response = result.getResponse();
+            int statements = statements(response);
+            assertTrue(statements <= maxStatements, () -> String.format(
+                    "Запросов к БД: %d при бюджете %d. Повторы: %s", statements, maxStatements,
+                    response.getHeader(SqlRequestStatsFilter.REPEATED_HEADER)));
+        };
+    }
+
+    public static ResultMatcher noRepeatedStatements() {
+        return result -> {
+            MockHttpServletResponse response = result.getResponse();
+            statements(response);
+            assertNull(response.getHeader(SqlRequestStatsFilter.REPEATED_HEADER), "Повторяющиеся запросы к БД");
+        };
+    }
+
+    private static int statements(MockHttpServletResponse response) {
+        String header = response.getHeader(SqlRequestStatsFilter.STATEMENTS_HEADER);
+        assertNotNull(header, "Нет заголовка " + SqlRequestStatsFilter.STATEMENTS_HEADER
+                + ": нужен filmorate.sql.stats-headers=true");
+        return Integer.parseInt(header);
+    }
+}
@@ -0,0 +1,96 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.EntityVersions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PopularFilmsCacheTest {
+    private final EntityVersions versions = new EntityVersions();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void shouldServeSmallerCountFromLargerEntryUntilCatalogChanges() {
+        PopularFilmsCache cache = new PopularFilmsCache(versions, 0, 100, 16);
+
+        assertThat(ids(cache.get(20, null, null, this::load))).hasSize(20);
+        assertThat(ids(cache.get(5, null, null, this::load))).containsExactly(1L, 2L, 3L, 4L, 5L);
+        assertThat(loads).hasValue(1);
+
+        versions.touchFilm(7);
+        cache.get(5, null, null, this::load);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void shouldRunOneLoaderForConcurrentMisses() throws Exception {
+        PopularFilmsCache cache = new PopularFilmsCache(versions, 0, 100, 16);
+        CountDownLatch release = new CountDownLatch(1);
+        PopularFilmsCache.Loader slowLoader = (count, genreId, year) -> {
+            await(release);
+            return load(count, genreId, year);
+        };
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        List<Future<PopularFilmsCache.Page>> pages = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            pages.add(executor.submit(() -> cache.get(10, 1L, null, slowLoader)));
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Future<PopularFilmsCache.Page> page : pages) {
+            assertThat(page.get(5, TimeUnit.SECONDS).films()).hasSize(10);
+        }
+        executor.shutdown();
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedKeyWhenFull() {
+        PopularFilmsCache cache = new PopularFilmsCache(versions, 0, 100, 2);
+
+        cache.get(5, 1L, null, this::load);
+        cache.get(5, 2L, null, this::load);
+        cache.get(5, 1L, null, this::load);
+        cache.get(5, 3L, null, this::load);
+        assertThat(loads).hasValue(3);
+
+        cache.get(5, 1L, null, this::load);
+        cache.get(5, 3L, null, this::load);
+        assertThat(loads).hasValue(3);
+        cache.get(5, 2L, null, this::load);
+        assertThat(loads).hasValue(4);
+    }
+
+    private List<Film> load(int count, Long genreId, Integer year) {
+        loads.incrementAndGet();
+        return LongStream.rangeClosed(1, 500).limit(count).mapToObj(id -> {
+            Film film = new Film();
+            film.setId(id);
+            return film;
+        }).toList();
+    }
+
+    private static List<Long> ids(PopularFilmsCache.Page page) {
+        return page.films().stream().map(Film::getId).toList();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
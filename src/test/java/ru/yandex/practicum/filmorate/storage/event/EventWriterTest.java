@@ -0,0 +1,148 @@
+package ru.yandex.practicum.filmorate.storage.event;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Пачка пишется по batch-size событий или при остановке: интервал сброса заведомо больше времени теста,
+ * поэтому до заполнения пачки события есть только в очереди.
+ */
+@SpringBootTest(properties = {"filmorate.events.batch-size=3", "filmorate.events.flush-interval-ms=600000"})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class EventWriterTest {
+    private static final String COUNT_QUERY = "SELECT COUNT(*) FROM events WHERE user_id = ?";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EventWriter eventWriter;
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void shouldShowPendingEventsInFeedAndNotDuplicateThemAfterFlush() throws Exception {
+        long userId = createUser("first");
+        long friendId = createUser("second");
+
+        mockMvc.perform(put("/users/{id}/friends/{friendId}", userId, friendId)).andExpect(status().isOk());
+        assertThat(storedEvents(userId)).isZero();
+        assertThat(feedEventIds(userId)).hasSize(1);
+
+        mockMvc.perform(delete("/users/{id}/friends/{friendId}", userId, friendId)).andExpect(status().isOk());
+        assertThat(feedEventIds(userId)).hasSize(2);
+
+        // третье событие заполняет пачку и будит поток записи
+        mockMvc.perform(put("/users/{id}/friends/{friendId}", userId, friendId)).andExpect(status().isOk());
+        List<Long> beforeFlush = feedEventIds(userId);
+        assertThat(beforeFlush).hasSize(3).doesNotHaveDuplicates();
+        waitUntilFlushed(userId, 3);
+
+        assertThat(feedEventIds(userId)).isEqualTo(beforeFlush);
+        assertThat(jdbcTemplate.queryForList("SELECT event_id FROM events WHERE user_id = ? ORDER BY ts, event_id",
+                Long.class, userId)).isEqualTo(beforeFlush);
+    }
+
+    @Test
+    void shouldFlushQueuedEventsOnStop() throws Exception {
+        long userId = createUser("first");
+        long friendId = createUser("second");
+        mockMvc.perform(put("/users/{id}/friends/{friendId}", userId, friendId)).andExpect(status().isOk());
+        assertThat(storedEvents(userId)).isZero();
+
+        eventWriter.stop();
+
+        assertThat(storedEvents(userId)).isEqualTo(1);
+        assertThat(eventWriter.getPending(userId)).isEmpty();
+        assertThat(feedEventIds(userId)).hasSize(1);
+    }
+
+    @Test
+    void shouldReplayPreSeededSpoolOnStart() throws Exception {
+        long userId = createUser("first");
+        Path spoolFile = tempDir.resolve("events.spool");
+        // событие удаленного пользователя отбрасывается, оборванная последняя строка пропускается
+        Files.writeString(spoolFile, "1000001,1700000000000," + userId + ",FRIEND,ADD,7\n"
+                + "1000002,1700000000001," + userId + ",FRIEND,REMOVE,7\n"
+                + "1000003,1700000000002,999,FRIEND,ADD,7\n"
+                + "1000004,17000000", StandardCharsets.UTF_8);
+
+        EventWriter writer = new EventWriter(jdbcTemplate, transactionTemplate, 2, 600000, 100, spoolFile);
+        writer.start();
+        try {
+            assertThat(Files.exists(spoolFile)).isFalse();
+            assertThat(writer.getPending(userId)).isEmpty();
+            assertThat(feedEventIds(userId)).containsExactly(1000001L, 1000002L);
+        } finally {
+            writer.stop();
+        }
+        assertThat(storedEvents(userId)).isEqualTo(2);
+    }
+
+    private long createUser(String login) throws Exception {
+        Map<String, Object> user = Map.of("email", login + "@example.com", "login", login,
+                "name", login, "birthday", "1990-01-01");
+        String response = mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(user)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return ((Number) JsonPath.read(response, "$.id")).longValue();
+    }
+
+    private List<Long> feedEventIds(long userId) throws Exception {
+        String response = mockMvc.perform(get("/users/{id}/feed", userId))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        List<Number> ids = JsonPath.read(response, "$[*].eventId");
+        return ids.stream().map(Number::longValue).toList();
+    }
+
+    private int storedEvents(long userId) {
+        return jdbcTemplate.queryForObject(COUNT_QUERY, Integer.class, userId);
+    }
+
+    private void waitUntilFlushed(long userId, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((storedEvents(userId) < expected || !eventWriter.getPending(userId).isEmpty())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(storedEvents(userId)).isEqualTo(expected);
+        assertThat(eventWriter.getPending(userId)).isEmpty();
+    }
+}
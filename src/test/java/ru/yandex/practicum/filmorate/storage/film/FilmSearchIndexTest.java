@@ -0,0 +1,120 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Поиск по триграммному индексу сверяется с прежним SQL-вариантом LOWER(name) LIKE LOWER('%query%').
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class FilmSearchIndexTest {
+    private static final String TITLE_LIKE_QUERY = "SELECT film_id FROM films WHERE LOWER(name) LIKE LOWER(?)";
+    private static final String DIRECTOR_LIKE_QUERY = "SELECT fd.film_id FROM films_directors fd " +
+            "JOIN directors d ON d.director_id = fd.director_id WHERE LOWER(d.name) LIKE LOWER(?)";
+    private static final List<String> QUERIES = List.of("и", "Ли", "ан", "ли ", "мат", "МАТР", "Matrix", "tRiX",
+            "нолан", "Wach", "ёмн", "рица: п", "пи", "дюн", "вильн", "zzz");
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void shouldMatchSqlLikeForTitlesAndDirectors() throws Exception {
+        perform(post("/directors"), Map.of("name", "Кристофер Нолан"));
+        perform(post("/directors"), Map.of("name", "Lana Wachowski"));
+        perform(post("/directors"), Map.of("name", "Ан Ли"));
+        perform(post("/films"), film(null, "Начало", 1));
+        perform(post("/films"), film(null, "The Matrix", 2));
+        perform(post("/films"), film(null, "Матрица: Перезагрузка"));
+        perform(post("/films"), film(null, "Тёмный рыцарь", 1));
+        perform(post("/films"), film(null, "Жизнь Пи", 3));
+        // совпадение только по режиссеру: в названии нет ни «ли», ни «ан»
+        perform(post("/films"), film(null, "Халк", 3));
+        assertSameAsSql();
+
+        perform(put("/directors"), Map.of("id", 1, "name", "Дени Вильнёв"));
+        mockMvc.perform(delete("/directors/3")).andExpect(status().is2xxSuccessful());
+        perform(put("/films"), film(3L, "Дюна"));
+        mockMvc.perform(delete("/films/2")).andExpect(status().is2xxSuccessful());
+        assertSameAsSql();
+    }
+
+    private void assertSameAsSql() throws Exception {
+        for (String query : QUERIES) {
+            String pattern = "%" + query.trim() + "%";
+            Set<Long> byTitle = new HashSet<>(jdbcTemplate.queryForList(TITLE_LIKE_QUERY, Long.class, pattern));
+            Set<Long> byDirector = new HashSet<>(jdbcTemplate.queryForList(DIRECTOR_LIKE_QUERY, Long.class, pattern));
+            Set<Long> both = new HashSet<>(byTitle);
+            both.addAll(byDirector);
+
+            assertThat(search(query, "title")).as("title: %s", query).isEqualTo(byTitle);
+            assertThat(search(query, "director")).as("director: %s", query).isEqualTo(byDirector);
+            assertThat(search(query, "title,director")).as("title,director: %s", query).isEqualTo(both);
+        }
+    }
+
+    private Set<Long> search(String query, String by) throws Exception {
+        String body = mockMvc.perform(get("/films/search").param("query", query).param("by", by))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        List<Number> ids = JsonPath.read(body, "$[*].id");
+        Set<Long> result = new HashSet<>();
+        ids.forEach(id -> result.add(id.longValue()));
+        return result;
+    }
+
+    private void perform(MockHttpServletRequestBuilder request, Object body) throws Exception {
+        mockMvc.perform(request
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(body)))
+                .andExpect(status().is2xxSuccessful());
+    }
+
+    private static Map<String, Object> film(Long id, String name, long... directorIds) {
+        Map<String, Object> film = new LinkedHashMap<>();
+        if (id != null) {
+            film.put("id", id);
+        }
+        film.put("name", name);
+        film.put("description", "Описание");
+        film.put("releaseDate", "2000-01-01");
+        film.put("duration", 90);
+        film.put("mpa", Map.of("id", 1));
+        List<Map<String, Long>> directors = new ArrayList<>();
+        for (long directorId : directorIds) {
+            directors.add(Map.of("id", directorId));
+        }
+        film.put("directors", directors);
+        return film;
+    }
+}
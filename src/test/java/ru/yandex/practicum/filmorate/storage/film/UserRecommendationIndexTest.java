@@ -0,0 +1,116 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserRecommendationIndexTest {
+    // без транзакции AfterCommit выполняет изменения сразу, матрица строится лайками, а не из БД
+    private final UserLikesIndex likes = new UserLikesIndex(null);
+
+    @Test
+    void shouldRecommendFromSingleMostSimilarUserAndFollowOtherUsersLikes() {
+        UserRecommendationIndex index = new UserRecommendationIndex(likes, 10);
+        like(index, 1, 1, 2);
+        like(index, 2, 1, 2, 3);
+        like(index, 3, 1, 4, 5);
+        index.rebuild();
+        assertThat(index.getRecommendedFilmIds(1)).containsExactly(3L);
+
+        // у пользователя 3 столько же общих лайков, но коэффициент Жаккара ниже: 2/4 против 2/3
+        like(index, 3, 2);
+        assertThat(index.getRecommendedFilmIds(1)).containsExactly(3L);
+
+        // лайки других пользователей меняют ответ сразу, без планового пересчета
+        likes.removeLike(2, 2);
+        index.onLikeChanged(2);
+        assertThat(index.getRecommendedFilmIds(1)).containsExactly(4L, 5L);
+
+        likes.removeUser(3);
+        index.onUserRemoved(3);
+        assertThat(index.getRecommendedFilmIds(1)).containsExactly(3L);
+        assertThat(index.getRecommendedFilmIds(4)).isEmpty();
+    }
+
+    @Test
+    void shouldMatchFullRecalculationAfterRandomChanges() {
+        Random random = new Random(7);
+        UserRecommendationIndex index = new UserRecommendationIndex(likes, 2);
+        Map<Long, TreeSet<Long>> expected = new HashMap<>();
+        index.rebuild();
+
+        for (int step = 0; step < 3_000; step++) {
+            long userId = 1 + random.nextInt(25);
+            long filmId = 1 + random.nextInt(15);
+            int operation = random.nextInt(100);
+            if (operation < 60) {
+                if (expected.computeIfAbsent(userId, id -> new TreeSet<>()).add(filmId)) {
+                    likes.addLike(filmId, userId);
+                    index.onLikeChanged(userId);
+                }
+            } else if (operation < 95) {
+                TreeSet<Long> films = expected.get(userId);
+                if (films != null && films.remove(filmId)) {
+                    likes.removeLike(filmId, userId);
+                    index.onLikeChanged(userId);
+                }
+            } else if (operation < 97) {
+                List<Long> likedBy = new ArrayList<>(likes.getUserIdsByFilm(filmId));
+                expected.values().forEach(films -> films.remove(filmId));
+                likes.removeFilm(filmId);
+                index.onLikesChanged(likedBy);
+            } else if (operation < 99) {
+                expected.remove(userId);
+                likes.removeUser(userId);
+                index.onUserRemoved(userId);
+            } else {
+                index.rebuild();
+            }
+            expected.values().removeIf(Set::isEmpty);
+
+            // строки проверяются не на каждом шаге, чтобы между проверками накапливались изменения
+            if (step % 7 == 0) {
+                for (long user = 1; user <= 25; user++) {
+                    assertThat(index.getRecommendedFilmIds(user)).as("step %d, user %d", step, user)
+                            .isEqualTo(recommend(expected, user));
+                }
+            }
+        }
+    }
+
+    private void like(UserRecommendationIndex index, long userId, long... filmIds) {
+        for (long filmId : filmIds) {
+            likes.addLike(filmId, userId);
+        }
+        index.onLikeChanged(userId);
+    }
+
+    // Самый похожий пользователь: больше общих лайков, затем выше коэффициент Жаккара, затем меньший id
+    private static List<Long> recommend(Map<Long, TreeSet<Long>> likesByUser, long userId) {
+        TreeSet<Long> own = likesByUser.getOrDefault(userId, new TreeSet<>());
+        Map<Long, double[]> scores = new TreeMap<>();
+        likesByUser.forEach((otherId, films) -> {
+            long common = films.stream().filter(own::contains).count();
+            if (otherId != userId && common > 0) {
+                int union = own.size() + films.size() - (int) common;
+                scores.put(otherId, new double[]{common, (double) common / union});
+            }
+        });
+        return scores.entrySet().stream()
+                .min(Comparator.<Map.Entry<Long, double[]>>comparingDouble(e -> -e.getValue()[0])
+                        .thenComparingDouble(e -> -e.getValue()[1])
+                        .thenComparingLong(Map.Entry::getKey))
+                .map(best -> likesByUser.get(best.getKey()).stream().filter(id -> !own.contains(id)).toList())
+                .orElse(List.of());
+    }
+}
@@ -0,0 +1,140 @@
+package ru.yandex.practicum.filmorate.storage.review;
+
+import org.h2.Driver;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.Review;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * useful отзыва сверяется с суммой оценок в review_reactions после каждого перехода оценки
+ * и после переноса оценок из прежних таблиц review_likes и review_dislikes.
+ */
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class ReviewDbStorageTest {
+    private static final String SUM_REACTIONS_QUERY =
+            "SELECT COALESCE(SUM(reaction), 0) FROM review_reactions WHERE review_id = ?";
+    private static final String INSERT_USER_QUERY = "INSERT INTO users (email, login, name, birthday) " +
+            "VALUES (?, ?, ?, '1990-01-01')";
+    private static final String INSERT_FILM_QUERY = "INSERT INTO films (name, description, release_date, duration, mpa_id) " +
+            "VALUES ('Фильм', 'Описание', '2000-01-01', 90, 1)";
+    // БД до review_reactions: оценки в двух таблицах, useful еще не хранится в reviews
+    private static final List<String> OLD_REVIEW_SCHEMA = List.of(
+            "DROP TABLE review_reactions",
+            "DROP INDEX reviews_film_useful_idx",
+            "DROP INDEX reviews_useful_idx",
+            "ALTER TABLE reviews DROP COLUMN useful",
+            "CREATE TABLE review_likes (review_id BIGINT NOT NULL REFERENCES reviews (review_id) ON DELETE CASCADE, " +
+                    "user_id BIGINT NOT NULL REFERENCES users (user_id) ON DELETE CASCADE, " +
+                    "created_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (review_id, user_id))",
+            "CREATE TABLE review_dislikes (review_id BIGINT NOT NULL REFERENCES reviews (review_id) ON DELETE CASCADE, " +
+                    "user_id BIGINT NOT NULL REFERENCES users (user_id) ON DELETE CASCADE, " +
+                    "created_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (review_id, user_id))");
+
+    @Autowired
+    private ReviewDbStorage reviewStorage;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void shouldKeepUsefulInStepWithReactions() {
+        addUsers(jdbcTemplate, 3);
+        jdbcTemplate.update(INSERT_FILM_QUERY);
+        long reviewId = reviewStorage.create(Review.builder()
+                .content("Отзыв").isPositive(true).userId(1L).filmId(1L).build()).getReviewId();
+        expectUseful(reviewId, 0);
+
+        reviewStorage.addLike(reviewId, 2L);
+        expectUseful(reviewId, 1);
+        // повторный лайк не меняет счетчик
+        reviewStorage.addLike(reviewId, 2L);
+        expectUseful(reviewId, 1);
+        // дизлайк заменяет лайк того же пользователя: -2
+        reviewStorage.addDislike(reviewId, 2L);
+        expectUseful(reviewId, -1);
+        // снимается только оценка того же знака
+        reviewStorage.removeLike(reviewId, 2L);
+        expectUseful(reviewId, -1);
+        reviewStorage.addDislike(reviewId, 3L);
+        expectUseful(reviewId, -2);
+        reviewStorage.addLike(reviewId, 2L);
+        expectUseful(reviewId, 0);
+        reviewStorage.removeDislike(reviewId, 2L);
+        expectUseful(reviewId, 0);
+        reviewStorage.removeLike(reviewId, 2L);
+        expectUseful(reviewId, -1);
+        reviewStorage.removeDislike(reviewId, 3L);
+        expectUseful(reviewId, 0);
+        reviewStorage.removeDislike(reviewId, 3L);
+        expectUseful(reviewId, 0);
+
+        // оценки удаляемого пользователя откатываются, остальные остаются
+        reviewStorage.addLike(reviewId, 2L);
+        reviewStorage.addDislike(reviewId, 3L);
+        reviewStorage.addLike(reviewId, 1L);
+        reviewStorage.removeReactionsByUser(2L);
+        expectUseful(reviewId, 0);
+        reviewStorage.removeReactionsByUser(3L);
+        expectUseful(reviewId, 1);
+    }
+
+    @Test
+    void shouldMigrateOldLikeAndDislikeTables() {
+        SimpleDriverDataSource dataSource = new SimpleDriverDataSource(new Driver(),
+                "jdbc:h2:mem:review-migration;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate oldDb = new JdbcTemplate(dataSource);
+        ResourceDatabasePopulator schema = new ResourceDatabasePopulator(new ClassPathResource("schema.sql"));
+        try {
+            schema.execute(dataSource);
+            addUsers(oldDb, 3);
+            oldDb.update(INSERT_FILM_QUERY);
+            oldDb.update("INSERT INTO reviews (content, is_positive, user_id, film_id) VALUES ('Первый', true, 1, 1)");
+            oldDb.update("INSERT INTO reviews (content, is_positive, user_id, film_id) VALUES ('Второй', false, 2, 1)");
+            oldDb.update("INSERT INTO reviews (content, is_positive, user_id, film_id) VALUES ('Третий', true, 3, 1)");
+            OLD_REVIEW_SCHEMA.forEach(oldDb::execute);
+            oldDb.update("INSERT INTO review_likes (review_id, user_id) VALUES (1, 1), (1, 2), (2, 1)");
+            // у пользователя 1 и лайк, и дизлайк второго отзыва: после переноса остается лайк
+            oldDb.update("INSERT INTO review_dislikes (review_id, user_id) VALUES (1, 3), (2, 1), (2, 2)");
+
+            schema.execute(dataSource);
+            expectMigrated(oldDb);
+            // схема выполняется при каждом запуске, повтор ничего не меняет
+            schema.execute(dataSource);
+            expectMigrated(oldDb);
+        } finally {
+            oldDb.execute("SHUTDOWN");
+        }
+    }
+
+    private static void expectMigrated(JdbcTemplate db) {
+        assertThat(db.queryForList("SELECT useful FROM reviews ORDER BY review_id", Integer.class))
+                .containsExactly(1, 0, 0);
+        assertThat(db.queryForList("SELECT CONCAT(review_id, ':', user_id, ':', reaction) FROM review_reactions " +
+                "ORDER BY review_id, user_id", String.class))
+                .containsExactly("1:1:1", "1:2:1", "1:3:-1", "2:1:1", "2:2:-1");
+        assertThat(db.queryForObject("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES " +
+                "WHERE TABLE_NAME IN ('REVIEW_LIKES', 'REVIEW_DISLIKES')", Integer.class)).isZero();
+    }
+
+    private static void addUsers(JdbcTemplate db, int count) {
+        for (int i = 1; i <= count; i++) {
+            db.update(INSERT_USER_QUERY, "user" + i + "@example.com", "login" + i, "User" + i);
+        }
+    }
+
+    private void expectUseful(long reviewId, int expected) {
+        assertThat(reviewStorage.findById(reviewId).orElseThrow().getUseful()).isEqualTo(expected);
+        assertThat(jdbcTemplate.queryForObject(SUM_REACTIONS_QUERY, Integer.class, reviewId)).isEqualTo(expected);
+    }
+}
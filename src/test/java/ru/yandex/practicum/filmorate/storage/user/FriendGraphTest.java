@@ -0,0 +1,92 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FriendGraphTest {
+    private static final int USERS = 3000;
+
+    @Test
+    void shouldBehaveLikeMapOfSortedSetsAcrossCompactions() {
+        Random random = new Random(17);
+        Map<Long, TreeSet<Long>> expected = new HashMap<>();
+        List<long[]> edges = new ArrayList<>();
+        for (long userId = 1; userId <= USERS; userId++) {
+            TreeSet<Long> friends = new TreeSet<>();
+            for (int i = random.nextInt(6); i > 0; i--) {
+                friends.add(1L + random.nextInt(USERS));
+            }
+            friends.remove(userId);
+            for (long friendId : friends) {
+                edges.add(new long[]{userId, friendId});
+            }
+            expected.put(userId, friends);
+        }
+        FriendGraph graph = new FriendGraph();
+        graph.load(edges);
+        assertSameGraph(graph, expected);
+
+        // id удаленных пользователей не выдаются повторно, поэтому операции идут только над оставшимися.
+        // Буфер сливается после 1024 измененных строк: за 40 000 шагов это происходит десятки раз
+        List<Long> alive = new ArrayList<>(expected.keySet());
+        for (int step = 1; step <= 40_000; step++) {
+            long userId = alive.get(random.nextInt(alive.size()));
+            long friendId = alive.get(random.nextInt(alive.size()));
+            int operation = random.nextInt(100);
+            if (operation < 60) {
+                if (userId != friendId) {
+                    graph.addFriend(userId, friendId);
+                    expected.get(userId).add(friendId);
+                }
+            } else if (operation < 97) {
+                graph.removeFriend(userId, friendId);
+                expected.get(userId).remove(friendId);
+            } else if (alive.size() > 2) {
+                graph.removeUser(userId);
+                alive.remove(Long.valueOf(userId));
+                expected.remove(userId);
+                expected.values().forEach(friends -> friends.remove(userId));
+            }
+
+            long otherId = alive.get(random.nextInt(alive.size()));
+            assertThat(graph.getFriends(userId)).containsExactly(toArray(expected.get(userId)));
+            assertThat(graph.isFriend(userId, friendId)).isEqualTo(isFriend(expected, userId, friendId));
+            assertThat(graph.isFriend(otherId, userId)).isEqualTo(isFriend(expected, otherId, userId));
+            assertThat(graph.getCommonFriends(otherId, friendId))
+                    .containsExactly(toArray(commonFriends(expected, otherId, friendId)));
+            if (step % 5000 == 0) {
+                assertSameGraph(graph, expected);
+            }
+        }
+    }
+
+    private static void assertSameGraph(FriendGraph graph, Map<Long, TreeSet<Long>> expected) {
+        for (long userId = 1; userId <= USERS; userId++) {
+            assertThat(graph.getFriends(userId)).containsExactly(toArray(expected.get(userId)));
+        }
+    }
+
+    private static boolean isFriend(Map<Long, TreeSet<Long>> expected, long userId, long friendId) {
+        TreeSet<Long> friends = expected.get(userId);
+        return friends != null && friends.contains(friendId);
+    }
+
+    private static Set<Long> commonFriends(Map<Long, TreeSet<Long>> expected, long userId, long otherId) {
+        TreeSet<Long> common = new TreeSet<>(expected.getOrDefault(userId, new TreeSet<>()));
+        common.retainAll(expected.getOrDefault(otherId, new TreeSet<>()));
+        return common;
+    }
+
+    private static long[] toArray(Set<Long> friends) {
+        return friends == null ? new long[0] : friends.stream().mapToLong(Long::longValue).toArray();
+    }
+}
@@ -0,0 +1,103 @@
+package ru.yandex.practicum.filmorate.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompressedLongSetTest {
+
+    @Test
+    void shouldBehaveLikeSortedSet() {
+        Random random = new Random(42);
+        for (int round = 0; round < 40; round++) {
+            int range = new int[]{100, 70_000, 300_000, 5_000_000}[round % 4];
+            boolean dense = round % 2 == 0;
+            CompressedLongSet set = new CompressedLongSet();
+            TreeSet<Long> expected = new TreeSet<>();
+
+            for (int i = 0; i < 10_000; i++) {
+                long value = dense ? i + random.nextInt(3) : random.nextInt(range);
+                if (random.nextInt(5) == 0) {
+                    assertThat(set.remove(value)).isEqualTo(expected.remove(value));
+                } else {
+                    assertThat(set.add(value)).isEqualTo(expected.add(value));
+                }
+                if (i % 997 == 0) {
+                    set.runOptimize();
+                }
+            }
+
+            assertThat(set).hasSize(expected.size());
+            assertThat(new ArrayList<>(set)).isEqualTo(new ArrayList<>(expected));
+            assertThat(set).isEqualTo(expected);
+            assertThat(set.hashCode()).isEqualTo(expected.hashCode());
+        }
+    }
+
+    @Test
+    void shouldIntersect() {
+        CompressedLongSet first = new CompressedLongSet();
+        CompressedLongSet second = new CompressedLongSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        for (long i = 0; i < 200_000; i++) {
+            first.add(i);
+            if (i % 3 == 0) {
+                second.add(i);
+                expected.add(i);
+            }
+        }
+        first.runOptimize();
+
+        assertThat(new ArrayList<>(first.and(second))).isEqualTo(new ArrayList<>(expected));
+        assertThat(first.andCardinality(second)).isEqualTo(expected.size());
+    }
+
+    @Test
+    void shouldRemoveThroughIterator() {
+        TreeSet<Long> expected = new TreeSet<>();
+        for (long i = 0; i < 200_000; i += 1 + i % 7) {
+            expected.add(i);
+        }
+        CompressedLongSet set = CompressedLongSet.of(expected);
+
+        set.removeIf(value -> value % 5 == 0);
+        expected.removeIf(value -> value % 5 == 0);
+        assertThat(new ArrayList<>(set)).isEqualTo(new ArrayList<>(expected));
+
+        // больше элементов, чем в аргументе: AbstractSet удаляет через итератор множества
+        List<Long> removed = List.of(1L, 2L, 70_000L, 199_999L);
+        assertThat(set.removeAll(removed)).isEqualTo(expected.removeAll(removed));
+        assertThat(new ArrayList<>(set)).isEqualTo(new ArrayList<>(expected));
+
+        // весь первый контейнер уходит, итератор должен перейти к следующему
+        List<Long> retained = expected.stream().filter(value -> value >= 65_536 && value % 3 != 0).toList();
+        assertThat(set.retainAll(retained)).isEqualTo(expected.retainAll(retained));
+        assertThat(new ArrayList<>(set)).isEqualTo(new ArrayList<>(expected));
+
+        Iterator<Long> iterator = set.iterator();
+        assertThatThrownBy(iterator::remove).isInstanceOf(IllegalStateException.class);
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        assertThat(set).isEmpty();
+    }
+
+    @Test
+    void copyShouldBeIndependent() {
+        CompressedLongSet set = CompressedLongSet.of(List.of(1L, 2L, 3L));
+        CompressedLongSet copy = set.copy();
+        copy.add(100_000L);
+        copy.remove(1L);
+
+        assertThat(set).containsExactly(1L, 2L, 3L);
+        assertThat(copy).containsExactly(2L, 3L, 100_000L);
+    }
+}
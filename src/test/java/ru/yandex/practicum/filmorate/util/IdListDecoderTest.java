@@ -0,0 +1,40 @@
+package ru.yandex.practicum.filmorate.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdListDecoderTest {
+
+    @Test
+    void shouldDecodeIdsIgnoringSpacesAndEmptyElements() {
+        assertThat(decode(null)).isEmpty();
+        assertThat(decode("")).isEmpty();
+        assertThat(decode(" , ")).isEmpty();
+        assertThat(decode("7")).containsExactly(7L);
+        assertThat(decode(" 1, 2 ,3 ")).containsExactly(1L, 2L, 3L);
+        assertThat(decode("4,,5,")).containsExactly(4L, 5L);
+        assertThat(decode("9223372036854775807")).containsExactly(Long.MAX_VALUE);
+    }
+
+    @Test
+    void shouldRejectMalformedList() {
+        assertThatThrownBy(() -> decode("1,a"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("1,a");
+        assertThatThrownBy(() -> decode("-1"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> decode("1;2"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static List<Long> decode(String ids) {
+        List<Long> decoded = new ArrayList<>();
+        IdListDecoder.forEach(ids, decoded::add);
+        return decoded;
+    }
+}